@@ -0,0 +1,66 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura.benchmarks;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.coverage.CoverageType;
+import org.sonar.api.batch.sensor.coverage.NewCoverage;
+
+/**
+ * Coverage which is folded into a checksum instead of being stored, so that iterations do not accumulate measures
+ * and the JIT cannot eliminate the work.
+ */
+final class ChecksumCoverage implements NewCoverage {
+
+  private final long[] checksum;
+
+  ChecksumCoverage(long[] checksum) {
+    this.checksum = checksum;
+  }
+
+  @Override
+  public NewCoverage onFile(InputFile inputFile) {
+    checksum[0] += inputFile.hashCode();
+    return this;
+  }
+
+  // deprecated, and ignored by the plugin
+  public NewCoverage ofType(CoverageType type) {
+    return this;
+  }
+
+  @Override
+  public NewCoverage lineHits(int line, int hits) {
+    checksum[0] += 31L * line + hits;
+    return this;
+  }
+
+  @Override
+  public NewCoverage conditions(int line, int conditions, int coveredConditions) {
+    checksum[0] += 31L * line + 7L * conditions + coveredConditions;
+    return this;
+  }
+
+  @Override
+  public void save() {
+    checksum[0]++;
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.plugins.cobertura.CoberturaPlugin;
+import org.sonar.plugins.cobertura.CoberturaReportGenerator;
+import org.sonar.plugins.cobertura.CoberturaReportParser;
+import org.sonar.plugins.cobertura.CoverageRecord;
+import org.sonar.plugins.cobertura.CoverageRecordReader;
+import org.sonar.plugins.cobertura.ParserEngine;
+import org.sonar.plugins.java.api.JavaResourceLocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Throughput of {@link CoberturaReportParser#parseReport} on generated reports, from parsing to
+ * {@link org.sonar.api.batch.sensor.coverage.NewCoverage#save()}, every class of the report being a file of the module,
+ * and of {@link CoverageRecordReader#read} alone.
+ * <p>
+ * Run with <code>java -jar target/benchmarks.jar -prof gc</code> to also get the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CoberturaReportParserBenchmark {
+
+  private static final int CLASSES_PER_PACKAGE = 100;
+
+  @Param({"1000", "10000", "200000"})
+  public int classes;
+
+  @Param({"0", "0.3"})
+  public double branchDensity;
+
+  @Param({"stax", "mmap"})
+  public String parser;
+
+  private Path baseDir;
+  private File report;
+  private SensorContext context;
+  private JavaResourceLocator javaResourceLocator;
+  private CoverageRecordReader recordReader;
+  private final long[] checksum = new long[1];
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    baseDir = Files.createTempDirectory("cobertura-benchmark");
+    report = baseDir.resolve("coverage.xml").toFile();
+    CoberturaReportGenerator generator = new CoberturaReportGenerator()
+      .packages(Math.max(1, classes / CLASSES_PER_PACKAGE))
+      .classesPerPackage(Math.min(classes, CLASSES_PER_PACKAGE))
+      .branchDensity(branchDensity);
+    generator.write(report);
+
+    DefaultFileSystem fs = new DefaultFileSystem(baseDir);
+    for (InputFile inputFile : generator.inputFiles(baseDir)) {
+      fs.add(inputFile);
+    }
+    MapSettings settings = new MapSettings();
+    settings.setProperty("sonar.sources", CoberturaReportGenerator.SOURCE_DIR);
+    settings.setProperty(CoberturaPlugin.COBERTURA_PARSER_PROPERTY, parser);
+
+    // stub-only mocks do not record invocations, which would otherwise pile up between iterations
+    context = mock(SensorContext.class, withSettings().stubOnly());
+    when(context.fileSystem()).thenReturn(fs);
+    when(context.config()).thenReturn(settings.asConfig());
+    when(context.newCoverage()).thenAnswer(invocation -> new ChecksumCoverage(checksum));
+    javaResourceLocator = mock(JavaResourceLocator.class, withSettings().stubOnly());
+    recordReader = new CoverageRecordReader(ParserEngine.valueOf(parser.toUpperCase(Locale.ROOT)), filename -> true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(report.toPath());
+    Files.deleteIfExists(baseDir);
+  }
+
+  @Benchmark
+  public long parseReport() {
+    checksum[0] = 0;
+    CoberturaReportParser.parseReport(report, context, javaResourceLocator);
+    return checksum[0];
+  }
+
+  @Benchmark
+  public long readRecords() {
+    checksum[0] = 0;
+    recordReader.read(report, this::fold);
+    return checksum[0];
+  }
+
+  private void fold(CoverageRecord record) {
+    checksum[0] += record.filename().hashCode();
+    for (int i = 0; i < record.lineCount(); i++) {
+      checksum[0] += 31L * record.line(i) + record.hits(i);
+    }
+    for (int i = 0; i < record.branchLineCount(); i++) {
+      checksum[0] += 31L * record.branchLine(i) + 7L * record.conditions(i) + record.coveredConditions(i);
+    }
+  }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura.merger;
+
+import org.sonar.plugins.cobertura.CoverageRecord;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Line hits and branch conditions of one source file, merged from the {@link CoverageRecord}s of several packages and
+ * reports. Lines are kept sorted in arrays, as in records, so that merging is a single pass over both coverages.
+ * <p>
+ * As in the sensor, hits of a line are summed without overflowing, and its best branch coverage
+ * is kept.
+ */
+final class MergedCoverage {
+
+  private static final int OBJECT_OVERHEAD = 16;
+  private static final int[] NONE = new int[0];
+
+  private int[] lines = NONE;
+  private int[] hits = NONE;
+  private int lineCount;
+  private int[] branchLines = NONE;
+  private int[] conditions = NONE;
+  private int[] coveredConditions = NONE;
+  private int branchLineCount;
+
+  static MergedCoverage of(CoverageRecord record) {
+    MergedCoverage coverage = new MergedCoverage();
+    coverage.lineCount = record.lineCount();
+    coverage.lines = new int[coverage.lineCount];
+    coverage.hits = new int[coverage.lineCount];
+    for (int i = 0; i < coverage.lineCount; i++) {
+      coverage.lines[i] = record.line(i);
+      coverage.hits[i] = record.hits(i);
+    }
+    coverage.branchLineCount = record.branchLineCount();
+    coverage.branchLines = new int[coverage.branchLineCount];
+    coverage.conditions = new int[coverage.branchLineCount];
+    coverage.coveredConditions = new int[coverage.branchLineCount];
+    for (int i = 0; i < coverage.branchLineCount; i++) {
+      coverage.branchLines[i] = record.branchLine(i);
+      coverage.conditions[i] = record.conditions(i);
+      coverage.coveredConditions[i] = record.coveredConditions(i);
+    }
+    return coverage;
+  }
+
+  void merge(MergedCoverage other) {
+    mergeLines(other);
+    mergeBranches(other);
+  }
+
+  private void mergeLines(MergedCoverage other) {
+    if (other.lineCount == 0) {
+      return;
+    }
+    int[] mergedLines = new int[lineCount + other.lineCount];
+    int[] mergedHits = new int[mergedLines.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < lineCount || j < other.lineCount) {
+      int line = i < lineCount ? lines[i] : Integer.MAX_VALUE;
+      int otherLine = j < other.lineCount ? other.lines[j] : Integer.MAX_VALUE;
+      if (j == other.lineCount || (i < lineCount && line < otherLine)) {
+        mergedLines[count] = line;
+        mergedHits[count] = hits[i++];
+      } else if (i == lineCount || otherLine < line) {
+        mergedLines[count] = otherLine;
+        mergedHits[count] = other.hits[j++];
+      } else {
+        mergedLines[count] = line;
+        mergedHits[count] = saturatedAdd(hits[i++], other.hits[j++]);
+      }
+      count++;
+    }
+    lines = mergedLines;
+    hits = mergedHits;
+    lineCount = count;
+  }
+
+  private void mergeBranches(MergedCoverage other) {
+    if (other.branchLineCount == 0) {
+      return;
+    }
+    int[] mergedLines = new int[branchLineCount + other.branchLineCount];
+    int[] mergedConditions = new int[mergedLines.length];
+    int[] mergedCoveredConditions = new int[mergedLines.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < branchLineCount || j < other.branchLineCount) {
+      int line = i < branchLineCount ? branchLines[i] : Integer.MAX_VALUE;
+      int otherLine = j < other.branchLineCount ? other.branchLines[j] : Integer.MAX_VALUE;
+      if (j == other.branchLineCount || (i < branchLineCount && line < otherLine)) {
+        mergedLines[count] = line;
+        mergedConditions[count] = conditions[i];
+        mergedCoveredConditions[count] = coveredConditions[i++];
+      } else if (i == branchLineCount || otherLine < line) {
+        mergedLines[count] = otherLine;
+        mergedConditions[count] = other.conditions[j];
+        mergedCoveredConditions[count] = other.coveredConditions[j++];
+      } else {
+        mergedLines[count] = line;
+        mergedConditions[count] = Math.max(conditions[i], other.conditions[j]);
+        mergedCoveredConditions[count] = Math.max(coveredConditions[i++], other.coveredConditions[j++]);
+      }
+      count++;
+    }
+    branchLines = mergedLines;
+    conditions = mergedConditions;
+    coveredConditions = mergedCoveredConditions;
+    branchLineCount = count;
+  }
+
+  int lineCount() {
+    return lineCount;
+  }
+
+  int line(int index) {
+    return lines[index];
+  }
+
+  int hits(int index) {
+    return hits[index];
+  }
+
+  int branchLineCount() {
+    return branchLineCount;
+  }
+
+  int branchLine(int index) {
+    return branchLines[index];
+  }
+
+  int conditions(int index) {
+    return conditions[index];
+  }
+
+  int coveredConditions(int index) {
+    return coveredConditions[index];
+  }
+
+  /**
+   * @return the approximate heap size of this coverage and of its arrays
+   */
+  long estimatedBytes() {
+    return 7L * OBJECT_OVERHEAD + 4L * (2L * lines.length + 3L * branchLines.length);
+  }
+
+  /**
+   * Layout: <code>lineCount { line hits }* branchLineCount { line conditions coveredConditions }*</code>, as ints.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeInt(lineCount);
+    for (int i = 0; i < lineCount; i++) {
+      out.writeInt(lines[i]);
+      out.writeInt(hits[i]);
+    }
+    out.writeInt(branchLineCount);
+    for (int i = 0; i < branchLineCount; i++) {
+      out.writeInt(branchLines[i]);
+      out.writeInt(conditions[i]);
+      out.writeInt(coveredConditions[i]);
+    }
+  }
+
+  static MergedCoverage readFrom(DataInput in) throws IOException {
+    MergedCoverage coverage = new MergedCoverage();
+    coverage.lineCount = in.readInt();
+    coverage.lines = new int[coverage.lineCount];
+    coverage.hits = new int[coverage.lineCount];
+    for (int i = 0; i < coverage.lineCount; i++) {
+      coverage.lines[i] = in.readInt();
+      coverage.hits[i] = in.readInt();
+    }
+    coverage.branchLineCount = in.readInt();
+    coverage.branchLines = new int[coverage.branchLineCount];
+    coverage.conditions = new int[coverage.branchLineCount];
+    coverage.coveredConditions = new int[coverage.branchLineCount];
+    for (int i = 0; i < coverage.branchLineCount; i++) {
+      coverage.branchLines[i] = in.readInt();
+      coverage.conditions[i] = in.readInt();
+      coverage.coveredConditions[i] = in.readInt();
+    }
+    return coverage;
+  }
+
+  private static int saturatedAdd(int a, int b) {
+    long sum = (long) a + b;
+    return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+  }
+
+}
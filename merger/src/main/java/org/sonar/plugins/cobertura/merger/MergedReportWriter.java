@@ -0,0 +1,255 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura.merger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a Cobertura XML report from file coverages received in {@link ReportMerger#FILENAME_ORDER}.
+ * <p>
+ * Packages are named after the directories of the files, and only the coverage of one package is kept in memory.
+ * Since the root element holds the totals of the whole report, packages are first written to a temporary body file,
+ * which is then copied after the root element.
+ */
+final class MergedReportWriter implements Closeable {
+
+  private static final String DOCTYPE = "<!DOCTYPE coverage SYSTEM \"http://cobertura.sourceforge.net/xml/coverage-04.dtd\">";
+
+  private final File output;
+  private final File body;
+  private final OutputStream bodyStream;
+  private final XMLStreamWriter xml;
+  private final Map<String, MergedCoverage> packageFiles = new LinkedHashMap<>();
+  private final Totals totals = new Totals();
+  private String packageDirectory;
+
+  MergedReportWriter(File output, File body) throws IOException {
+    this.output = output;
+    this.body = body;
+    this.bodyStream = new BufferedOutputStream(new FileOutputStream(body), ReportMerger.BUFFER_SIZE);
+    try {
+      this.xml = XMLOutputFactory.newInstance().createXMLStreamWriter(bodyStream, StandardCharsets.UTF_8.name());
+      xml.writeCharacters("\n");
+      xml.writeStartElement("packages");
+    } catch (XMLStreamException e) {
+      bodyStream.close();
+      throw new IOException("Unable to write " + body, e);
+    }
+  }
+
+  /**
+   * Filenames must be added in {@link ReportMerger#FILENAME_ORDER}.
+   */
+  void add(String filename, MergedCoverage coverage) throws IOException {
+    String directory = ReportMerger.directory(filename);
+    if (packageDirectory != null && !packageDirectory.equals(directory)) {
+      writePackage();
+    }
+    packageDirectory = directory;
+    packageFiles.put(filename, coverage);
+  }
+
+  /**
+   * Writes the report, with the given <code>&lt;source&gt;</code> roots.
+   */
+  void finish(Collection<String> sources) throws IOException {
+    try {
+      if (packageDirectory != null) {
+        writePackage();
+      }
+      xml.writeCharacters("\n");
+      xml.writeEndElement();
+      xml.close();
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write " + body, e);
+    } finally {
+      bodyStream.close();
+    }
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), ReportMerger.BUFFER_SIZE)) {
+      writeHeader(out, sources);
+      Files.copy(body.toPath(), out);
+      out.write("\n</coverage>\n".getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    bodyStream.close();
+  }
+
+  private void writeHeader(OutputStream out, Collection<String> sources) throws IOException {
+    try {
+      XMLStreamWriter header = XMLOutputFactory.newInstance().createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+      header.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+      header.writeCharacters("\n");
+      header.writeDTD(DOCTYPE);
+      header.writeCharacters("\n");
+      header.writeStartElement("coverage");
+      totals.writeAttributes(header);
+      header.writeAttribute("lines-covered", Long.toString(totals.coveredLines));
+      header.writeAttribute("lines-valid", Long.toString(totals.lines));
+      header.writeAttribute("branches-covered", Long.toString(totals.coveredConditions));
+      header.writeAttribute("branches-valid", Long.toString(totals.conditions));
+      header.writeAttribute("timestamp", Long.toString(System.currentTimeMillis()));
+      header.writeCharacters("\n");
+      header.writeStartElement("sources");
+      for (String source : sources) {
+        header.writeCharacters("\n");
+        header.writeStartElement("source");
+        header.writeCharacters(source);
+        header.writeEndElement();
+      }
+      header.writeCharacters("\n");
+      header.writeEndElement();
+      header.flush();
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write " + output, e);
+    }
+  }
+
+  private void writePackage() throws IOException {
+    Totals packageTotals = new Totals();
+    for (MergedCoverage coverage : packageFiles.values()) {
+      packageTotals.add(coverage);
+    }
+    totals.add(packageTotals);
+    try {
+      xml.writeCharacters("\n");
+      xml.writeStartElement("package");
+      xml.writeAttribute("name", packageDirectory.replace('/', '.').replace('\\', '.'));
+      packageTotals.writeAttributes(xml);
+      xml.writeStartElement("classes");
+      for (Map.Entry<String, MergedCoverage> entry : packageFiles.entrySet()) {
+        writeClass(entry.getKey(), entry.getValue());
+      }
+      xml.writeEndElement();
+      xml.writeEndElement();
+    } catch (XMLStreamException e) {
+      throw new IOException("Unable to write " + body, e);
+    }
+    packageFiles.clear();
+  }
+
+  private void writeClass(String filename, MergedCoverage coverage) throws XMLStreamException {
+    Totals classTotals = new Totals();
+    classTotals.add(coverage);
+    xml.writeCharacters("\n");
+    xml.writeStartElement("class");
+    xml.writeAttribute("name", className(filename));
+    xml.writeAttribute("filename", filename);
+    classTotals.writeAttributes(xml);
+    xml.writeEmptyElement("methods");
+    xml.writeStartElement("lines");
+    // lines with conditions but without hits are written with zero hits
+    int lineIndex = 0;
+    int branchIndex = 0;
+    while (lineIndex < coverage.lineCount() || branchIndex < coverage.branchLineCount()) {
+      int line = lineIndex < coverage.lineCount() ? coverage.line(lineIndex) : Integer.MAX_VALUE;
+      int branchLine = branchIndex < coverage.branchLineCount() ? coverage.branchLine(branchIndex) : Integer.MAX_VALUE;
+      int number = Math.min(line, branchLine);
+      xml.writeCharacters("\n");
+      xml.writeEmptyElement("line");
+      xml.writeAttribute("number", Integer.toString(number));
+      xml.writeAttribute("hits", Integer.toString(line == number ? coverage.hits(lineIndex) : 0));
+      if (branchLine == number) {
+        int conditions = coverage.conditions(branchIndex);
+        int covered = coverage.coveredConditions(branchIndex);
+        xml.writeAttribute("branch", "true");
+        xml.writeAttribute("condition-coverage", (100 * covered / conditions) + "% (" + covered + "/" + conditions + ")");
+        branchIndex++;
+      } else {
+        xml.writeAttribute("branch", "false");
+      }
+      if (line == number) {
+        lineIndex++;
+      }
+    }
+    xml.writeEndElement();
+    xml.writeEndElement();
+  }
+
+  private static String className(String filename) {
+    int extension = filename.lastIndexOf('.');
+    String className = extension > Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) ? filename.substring(0, extension) : filename;
+    return className.replace('/', '.').replace('\\', '.');
+  }
+
+  private static final class Totals {
+
+    private long lines;
+    private long coveredLines;
+    private long conditions;
+    private long coveredConditions;
+
+    void add(MergedCoverage coverage) {
+      lines += coverage.lineCount();
+      for (int i = 0; i < coverage.lineCount(); i++) {
+        if (coverage.hits(i) > 0) {
+          coveredLines++;
+        }
+      }
+      for (int i = 0; i < coverage.branchLineCount(); i++) {
+        conditions += coverage.conditions(i);
+        coveredConditions += coverage.coveredConditions(i);
+      }
+    }
+
+    void add(Totals other) {
+      lines += other.lines;
+      coveredLines += other.coveredLines;
+      conditions += other.conditions;
+      coveredConditions += other.coveredConditions;
+    }
+
+    void writeAttributes(XMLStreamWriter xml) throws XMLStreamException {
+      xml.writeAttribute("line-rate", rate(coveredLines, lines));
+      xml.writeAttribute("branch-rate", rate(coveredConditions, conditions));
+      xml.writeAttribute("complexity", "0");
+    }
+
+  }
+
+  /**
+   * As Cobertura, considers that nothing to cover is fully covered, and writes rates in decimal notation, never with
+   * an exponent.
+   */
+  static String rate(long covered, long valid) {
+    if (valid == 0) {
+      return "1.0";
+    }
+    String rate = BigDecimal.valueOf((double) covered / valid).stripTrailingZeros().toPlainString();
+    return rate.indexOf('.') < 0 ? (rate + ".0") : rate;
+  }
+
+}
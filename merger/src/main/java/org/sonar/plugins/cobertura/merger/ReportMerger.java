@@ -0,0 +1,231 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura.merger;
+
+import org.apache.commons.io.FileUtils;
+import org.sonar.plugins.cobertura.CoverageRecord;
+import org.sonar.plugins.cobertura.CoverageRecordReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Command line merger of sharded Cobertura reports into one report, in memory bounded by the size of its buffer
+ * rather than by the size of the reports:
+ * <pre>
+ * java -jar cobertura-merger.jar [--buffer &lt;MB&gt;] merged.xml shard.xml...
+ * </pre>
+ * Reports are read by a {@link CoverageRecordReader}, package by package as by the sensor, into a buffer of file
+ * coverages sorted by filename.
+ * Whenever the buffer is full, it is spilled to a temporary sorted run. Runs are then merged, at most
+ * {@link #MAX_FAN_IN} at a time, until the last merge writes the report. As in the sensor, hits of a line are summed
+ * and its best branch coverage is kept.
+ */
+public final class ReportMerger {
+
+  static final int DEFAULT_BUFFER_MB = 64;
+  static final int MAX_FAN_IN = 64;
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Sorts files by directory first, so that the files of a package are contiguous.
+   */
+  static final Comparator<String> FILENAME_ORDER = Comparator.comparing(ReportMerger::directory).thenComparing(Comparator.naturalOrder());
+
+  private static final long MAP_ENTRY_BYTES = 64;
+
+  private final long bufferBytes;
+  private final int fanIn;
+  private final File tempDir;
+
+  ReportMerger(long bufferBytes, int fanIn, File tempDir) {
+    this.bufferBytes = bufferBytes;
+    this.fanIn = fanIn;
+    this.tempDir = tempDir;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int first = 0;
+    long bufferMb = DEFAULT_BUFFER_MB;
+    if (args.length > 1 && "--buffer".equals(args[0])) {
+      bufferMb = Long.parseLong(args[1]);
+      first = 2;
+    }
+    if (args.length - first < 2) {
+      System.err.println("Usage: ReportMerger [--buffer <MB>] <output> <report>...");
+      System.exit(1);
+    }
+    List<File> reports = new ArrayList<>();
+    for (int i = first + 1; i < args.length; i++) {
+      reports.add(new File(args[i]));
+    }
+    new ReportMerger(bufferMb * 1024 * 1024, MAX_FAN_IN, new File(System.getProperty("java.io.tmpdir")))
+      .merge(reports, new File(args[first]));
+  }
+
+  void merge(List<File> reports, File output) throws IOException {
+    Path workDir = Files.createTempDirectory(tempDir.toPath(), "cobertura-merger");
+    try {
+      Spiller spiller = new Spiller(workDir);
+      CoverageRecordReader reader = new CoverageRecordReader();
+      for (File report : reports) {
+        reader.read(report, spiller.sources::add, spiller);
+      }
+      List<File> runs = spiller.finish();
+      while (runs.size() > fanIn) {
+        runs = mergePass(runs, workDir);
+      }
+      try (MergedReportWriter writer = new MergedReportWriter(output, workDir.resolve("body.xml").toFile())) {
+        mergeRuns(runs, writer::add);
+        writer.finish(spiller.sources);
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      FileUtils.deleteQuietly(workDir.toFile());
+    }
+  }
+
+  private List<File> mergePass(List<File> runs, Path workDir) throws IOException {
+    List<File> merged = new ArrayList<>();
+    for (int from = 0; from < runs.size(); from += fanIn) {
+      List<File> group = runs.subList(from, Math.min(runs.size(), from + fanIn));
+      File run = Files.createTempFile(workDir, "run", ".bin").toFile();
+      try (SortedRun.Writer writer = new SortedRun.Writer(run)) {
+        mergeRuns(group, writer::add);
+      }
+      for (File input : group) {
+        Files.delete(input.toPath());
+      }
+      merged.add(run);
+    }
+    return merged;
+  }
+
+  private static void mergeRuns(List<File> runs, CoverageSink sink) throws IOException {
+    PriorityQueue<SortedRun.Reader> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+      (a, b) -> FILENAME_ORDER.compare(a.filename(), b.filename()));
+    List<SortedRun.Reader> readers = new ArrayList<>();
+    try {
+      for (File run : runs) {
+        SortedRun.Reader reader = new SortedRun.Reader(run);
+        readers.add(reader);
+        if (reader.next()) {
+          queue.add(reader);
+        }
+      }
+      while (!queue.isEmpty()) {
+        String filename = queue.peek().filename();
+        MergedCoverage coverage = new MergedCoverage();
+        while (!queue.isEmpty() && queue.peek().filename().equals(filename)) {
+          SortedRun.Reader reader = queue.poll();
+          coverage.merge(reader.coverage());
+          if (reader.next()) {
+            queue.add(reader);
+          }
+        }
+        sink.add(filename, coverage);
+      }
+    } finally {
+      for (SortedRun.Reader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  static String directory(String filename) {
+    int lastSeparator = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\'));
+    return lastSeparator < 0 ? "" : filename.substring(0, lastSeparator);
+  }
+
+  private interface CoverageSink {
+    void add(String filename, MergedCoverage coverage) throws IOException;
+  }
+
+  /**
+   * Receives the records of reports package by package, and spills them to a new run whenever the buffer is full.
+   */
+  private final class Spiller implements Consumer<CoverageRecord> {
+
+    private final Path workDir;
+    private final TreeMap<String, MergedCoverage> buffer = new TreeMap<>(FILENAME_ORDER);
+    private final List<File> runs = new ArrayList<>();
+    private final Set<String> sources = new LinkedHashSet<>();
+    private long bufferedBytes;
+
+    Spiller(Path workDir) {
+      this.workDir = workDir;
+    }
+
+    @Override
+    public void accept(CoverageRecord record) {
+      MergedCoverage coverage = MergedCoverage.of(record);
+      MergedCoverage buffered = buffer.get(record.filename());
+      if (buffered == null) {
+        buffer.put(record.filename(), coverage);
+        bufferedBytes += MAP_ENTRY_BYTES + 2L * record.filename().length() + coverage.estimatedBytes();
+      } else {
+        long before = buffered.estimatedBytes();
+        buffered.merge(coverage);
+        bufferedBytes += buffered.estimatedBytes() - before;
+      }
+      if (bufferedBytes >= bufferBytes) {
+        try {
+          spill();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+
+    List<File> finish() throws IOException {
+      if (!buffer.isEmpty() || runs.isEmpty()) {
+        spill();
+      }
+      return runs;
+    }
+
+    private void spill() throws IOException {
+      File run = Files.createTempFile(workDir, "run", ".bin").toFile();
+      try (SortedRun.Writer writer = new SortedRun.Writer(run)) {
+        for (Map.Entry<String, MergedCoverage> entry : buffer.entrySet()) {
+          writer.add(entry.getKey(), entry.getValue());
+        }
+      }
+      runs.add(run);
+      buffer.clear();
+      bufferedBytes = 0;
+    }
+
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura.merger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Temporary file of file coverages sorted in {@link ReportMerger#FILENAME_ORDER}, each filename appearing once.
+ * <p>
+ * Layout, where coverages are encoded by {@link MergedCoverage#writeTo}:
+ * <pre>
+ * { true filename(modified UTF-8) coverage }* false
+ * </pre>
+ */
+final class SortedRun {
+
+  private SortedRun() {
+  }
+
+  static final class Writer implements Closeable {
+
+    private final DataOutputStream output;
+
+    Writer(File run) throws IOException {
+      output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), ReportMerger.BUFFER_SIZE));
+    }
+
+    /**
+     * Filenames must be added in {@link ReportMerger#FILENAME_ORDER}.
+     */
+    void add(String filename, MergedCoverage coverage) throws IOException {
+      output.writeBoolean(true);
+      output.writeUTF(filename);
+      coverage.writeTo(output);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        output.writeBoolean(false);
+      } finally {
+        output.close();
+      }
+    }
+
+  }
+
+  static final class Reader implements Closeable {
+
+    private final DataInputStream input;
+    private String filename;
+    private MergedCoverage coverage;
+
+    Reader(File run) throws IOException {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(run), ReportMerger.BUFFER_SIZE));
+    }
+
+    /**
+     * @return false at the end of the run
+     */
+    boolean next() throws IOException {
+      if (!input.readBoolean()) {
+        filename = null;
+        coverage = null;
+        return false;
+      }
+      filename = input.readUTF();
+      coverage = MergedCoverage.readFrom(input);
+      return true;
+    }
+
+    String filename() {
+      return filename;
+    }
+
+    MergedCoverage coverage() {
+      return coverage;
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura.merger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.cobertura.CoberturaReportGenerator;
+import org.sonar.plugins.cobertura.CoverageRecordReader;
+import org.sonar.plugins.cobertura.ParserEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportMergerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void sumsHitsAndKeepsBestBranchCoverage() throws Exception {
+    File first = report("<sources><source>/project/src</source></sources><packages><package name=\"org.example\"><classes>"
+      + "<class name=\"org.example.Foo\" filename=\"org/example/Foo.java\"><methods/><lines>"
+      + "<line number=\"1\" hits=\"2\" branch=\"false\"/>"
+      + "<line number=\"2\" hits=\"1\" branch=\"true\" condition-coverage=\"50% (2/4)\"/>"
+      + "</lines></class></classes></package></packages>");
+    File second = report("<sources><source>/project/src</source></sources><packages><package name=\"org.example\"><classes>"
+      + "<class name=\"org.example.Foo\" filename=\"org/example/Foo.java\"><methods/><lines>"
+      + "<line number=\"1\" hits=\"3\" branch=\"false\"/>"
+      + "<line number=\"2\" hits=\"0\" branch=\"true\" condition-coverage=\"25% (1/4)\"/>"
+      + "</lines></class>"
+      + "<class name=\"Bar\" filename=\"Bar.java\"><methods/><lines><line number=\"5\" hits=\"0\" branch=\"false\"/></lines></class>"
+      + "</classes></package></packages>");
+    File output = new File(temp.getRoot(), "merged.xml");
+
+    new ReportMerger(1024 * 1024, ReportMerger.MAX_FAN_IN, temp.newFolder()).merge(Arrays.asList(first, second), output);
+
+    List<String> sources = new ArrayList<>();
+    Map<String, MergedCoverage> merged = read(new CoverageRecordReader(ParserEngine.STAX, filename -> true), output, sources);
+    assertThat(merged.keySet()).containsOnly("org/example/Foo.java", "Bar.java");
+    assertThat(sources).containsOnly("/project/src");
+    MergedCoverage foo = merged.get("org/example/Foo.java");
+    assertThat(foo.hits(0)).isEqualTo(5);
+    assertThat(foo.hits(1)).isEqualTo(1);
+    assertThat(foo.conditions(0)).isEqualTo(4);
+    assertThat(foo.coveredConditions(0)).isEqualTo(2);
+    String xml = FileUtils.readFileToString(output, StandardCharsets.UTF_8);
+    assertThat(xml).contains("lines-covered=\"2\" lines-valid=\"3\" branches-covered=\"2\" branches-valid=\"4\"");
+    assertThat(xml).contains("<package name=\"\"");
+  }
+
+  @Test
+  public void mergesSpilledRunsInSeveralPasses() throws Exception {
+    List<File> shards = new ArrayList<>();
+    Map<String, MergedCoverage> expected = new TreeMap<>();
+    for (int seed = 0; seed < 5; seed++) {
+      File shard = temp.newFile("shard-" + seed + ".xml");
+      new CoberturaReportGenerator().packages(7).classesPerPackage(5).linesPerClass(20).innerClasses(1).branchDensity(0.3).seed(seed).write(shard);
+      shards.add(shard);
+      new CoverageRecordReader(ParserEngine.STAX, filename -> true).read(shard, record -> expected
+        .computeIfAbsent(record.filename(), filename -> new MergedCoverage()).merge(MergedCoverage.of(record)));
+    }
+    File output = new File(temp.getRoot(), "merged.xml");
+    File tempDir = temp.newFolder();
+
+    // one run per package and report, merged two by two
+    new ReportMerger(1, 2, tempDir).merge(shards, output);
+
+    Map<String, MergedCoverage> merged = read(new CoverageRecordReader(), output, new ArrayList<>());
+    assertThat(merged.keySet()).isEqualTo(expected.keySet());
+    for (Map.Entry<String, MergedCoverage> entry : expected.entrySet()) {
+      assertThat(encode(merged.get(entry.getKey()))).isEqualTo(encode(entry.getValue()));
+    }
+    assertThat(tempDir.list()).isEmpty();
+  }
+
+  @Test
+  public void writesRatesInDecimalNotation() {
+    assertThat(MergedReportWriter.rate(1, 10000)).isEqualTo("0.0001");
+    assertThat(MergedReportWriter.rate(1, 3)).isEqualTo("0.3333333333333333");
+    assertThat(MergedReportWriter.rate(0, 4)).isEqualTo("0.0");
+    assertThat(MergedReportWriter.rate(4, 4)).isEqualTo("1.0");
+    assertThat(MergedReportWriter.rate(0, 0)).isEqualTo("1.0");
+  }
+
+  private File report(String content) throws IOException {
+    File report = temp.newFile();
+    FileUtils.write(report, "<?xml version=\"1.0\"?><coverage>" + content + "</coverage>", StandardCharsets.UTF_8);
+    return report;
+  }
+
+  private static Map<String, MergedCoverage> read(CoverageRecordReader reader, File report, List<String> sources) {
+    Map<String, MergedCoverage> coverages = new TreeMap<>();
+    reader.read(report, sources::add, record -> assertThat(coverages.put(record.filename(), MergedCoverage.of(record))).isNull());
+    return coverages;
+  }
+
+  private static byte[] encode(MergedCoverage coverage) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    coverage.writeTo(new DataOutputStream(output));
+    return output.toByteArray();
+  }
+
+}
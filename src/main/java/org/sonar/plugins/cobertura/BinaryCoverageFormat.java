@@ -0,0 +1,383 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact and indexed binary form of a parsed report, about 20 times smaller than the Cobertura XML.
+ * <p>
+ * Layout, where every number but the stamp is an unsigned LEB128 varint:
+ * <pre>
+ * "CCOV" version
+ * stamp: reportSize(int64) reportLastModifiedNanos(int64)         -- since version 2, see {@link ReportStamp}
+ * sourceCount { sourceLength source(UTF-8) }*                     -- since version 3, the &lt;source&gt; roots
+ * fileCount { filenameLength filename(UTF-8) offset length }*    -- index, offsets relative to the data section
+ * data section: per file
+ *   lineCount { lineDelta hits }*
+ *   branchLineCount { lineDelta conditions coveredConditions }*
+ * </pre>
+ * Line numbers are encoded as the difference with the previous line of the same run. A file may be indexed several
+ * times, e.g. once per package of a report converted by a {@link Writer}, and its records are then merged. Readers
+ * memory-map the file, hand over the source roots to the {@link ReportFilter}, decode the index and only decode the
+ * data of the files it accepts.
+ */
+final class BinaryCoverageFormat {
+
+  static final byte[] MAGIC = {'C', 'C', 'O', 'V'};
+  static final int VERSION = 3;
+
+  private static final int STAMP_VERSION = 2;
+  private static final int SOURCES_VERSION = 3;
+
+  private BinaryCoverageFormat() {
+  }
+
+  static void write(ParsedReport report, OutputStream output) throws IOException {
+    write(report, ReportStamp.NONE, output);
+  }
+
+  /**
+   * @param stamp the report which has been converted, if it is a single one
+   */
+  static void write(ParsedReport report, ReportStamp stamp, OutputStream output) throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    writeVarint(index, report.records().size());
+    for (CoverageRecord record : report.records()) {
+      int offset = data.size();
+      writeRecord(data, record);
+      writeString(index, record.filename());
+      writeVarint(index, offset);
+      writeVarint(index, data.size() - offset);
+    }
+    DataOutputStream out = new DataOutputStream(output);
+    writeHeader(out, stamp, report.sources());
+    index.writeTo(out);
+    data.writeTo(out);
+    out.flush();
+  }
+
+  private static void writeHeader(DataOutputStream out, ReportStamp stamp, Collection<String> sources) throws IOException {
+    out.write(MAGIC);
+    writeVarint(out, VERSION);
+    stamp.writeTo(out);
+    writeVarint(out, sources.size());
+    for (String source : sources) {
+      writeString(out, source);
+    }
+  }
+
+  static ReportCoverage read(File report, ReportFilter filter) {
+    try (FileChannel channel = FileChannel.open(report.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Binary coverage report is too large: " + report);
+      }
+      return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), filter);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + report, e);
+    } catch (IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IllegalStateException("Invalid binary coverage report " + report, e);
+    }
+  }
+
+  static ReportCoverage read(ByteBuffer buffer, ReportFilter filter) {
+    int version = readVersion(buffer);
+    if (version >= STAMP_VERSION) {
+      buffer.getLong();
+      buffer.getLong();
+    }
+    ReportCoverage coverage = new ReportCoverage();
+    if (version >= SOURCES_VERSION) {
+      for (int i = readVarint(buffer); i > 0; i--) {
+        String source = readString(buffer);
+        coverage.addSource(source);
+        filter.sourceRoot(source);
+      }
+    }
+    int fileCount = readVarint(buffer);
+    List<String> filenames = new ArrayList<>();
+    List<Integer> offsets = new ArrayList<>();
+    for (int i = 0; i < fileCount; i++) {
+      filenames.add(readString(buffer));
+      offsets.add(readVarint(buffer));
+      readVarint(buffer);
+    }
+    int dataStart = buffer.position();
+    for (int i = 0; i < fileCount; i++) {
+      String filename = filenames.get(i);
+      if (filter.acceptFile(filename)) {
+        buffer.position(dataStart + offsets.get(i));
+        readRecord(buffer, coverage.fileCoverage(filename));
+      }
+    }
+    return coverage;
+  }
+
+  static void writeRecord(OutputStream output, CoverageRecord record) throws IOException {
+    writeVarint(output, record.lineCount());
+    int previous = 0;
+    for (int i = 0; i < record.lineCount(); i++) {
+      writeVarint(output, record.line(i) - previous);
+      writeVarint(output, record.hits(i));
+      previous = record.line(i);
+    }
+    writeVarint(output, record.branchLineCount());
+    previous = 0;
+    for (int i = 0; i < record.branchLineCount(); i++) {
+      writeVarint(output, record.branchLine(i) - previous);
+      writeVarint(output, record.conditions(i));
+      writeVarint(output, record.coveredConditions(i));
+      previous = record.branchLine(i);
+    }
+  }
+
+  /**
+   * @return the stamp of the report the binary report has been converted from, {@link ReportStamp#NONE} if unknown.
+   * Binary reports written before version 3 do not keep the source roots of the report, so their stamp is unknown.
+   */
+  static ReportStamp readStamp(File binaryReport) throws IOException {
+    try (FileChannel channel = FileChannel.open(binaryReport.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 5 + 2 * Long.BYTES);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // fill the header
+      }
+      header.flip();
+      return readStamp(header);
+    } catch (IllegalArgumentException | BufferUnderflowException e) {
+      return ReportStamp.NONE;
+    }
+  }
+
+  private static ReportStamp readStamp(ByteBuffer buffer) {
+    int version = readVersion(buffer);
+    return version < SOURCES_VERSION ? ReportStamp.NONE : new ReportStamp(buffer.getLong(), buffer.getLong());
+  }
+
+  private static int readVersion(ByteBuffer buffer) {
+    for (byte b : MAGIC) {
+      if (buffer.get() != b) {
+        throw new IllegalArgumentException("Not a binary coverage report");
+      }
+    }
+    int version = readVarint(buffer);
+    if (version < 1 || version > VERSION) {
+      throw new IllegalArgumentException("Unsupported binary coverage report version " + version);
+    }
+    return version;
+  }
+
+  static void readRecord(ByteBuffer buffer, FileCoverage fileCoverage) {
+    int lineCount = readVarint(buffer);
+    int line = 0;
+    for (int i = 0; i < lineCount; i++) {
+      line += readVarint(buffer);
+      fileCoverage.lineHits(line, readVarint(buffer));
+    }
+    int branchLineCount = readVarint(buffer);
+    line = 0;
+    for (int i = 0; i < branchLineCount; i++) {
+      line += readVarint(buffer);
+      int conditions = readVarint(buffer);
+      fileCoverage.conditions(line, conditions, readVarint(buffer));
+    }
+  }
+
+  private static void writeString(OutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(output, bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[readVarint(buffer)];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeVarint(OutputStream output, int value) throws IOException {
+    int remaining = value;
+    while ((remaining & ~0x7f) != 0) {
+      output.write((remaining & 0x7f) | 0x80);
+      remaining >>>= 7;
+    }
+    output.write(remaining);
+  }
+
+  static int readVarint(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        if (value < 0) {
+          throw new IllegalArgumentException("Varint out of range");
+        }
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Varint is too long");
+  }
+
+  /**
+   * Writes a binary report from records received one at a time, e.g. package after package while a report is parsed,
+   * so that the report is never held in memory. Records are spilled to a temporary data file next to the output while
+   * only the index is kept in memory, then {@link #finish()} writes the output.
+   */
+  static final class Writer implements Closeable {
+
+    private final File output;
+    private final ReportStamp stamp;
+    private final File data;
+    private final OutputStream dataStream;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+    private final Set<String> sources = new LinkedHashSet<>();
+    private int fileCount;
+    private long dataSize;
+
+    Writer(File output, ReportStamp stamp) throws IOException {
+      this.output = output;
+      this.stamp = stamp;
+      this.data = Files.createTempFile(output.getAbsoluteFile().getParentFile().toPath(), ".cobertura", ".data").toFile();
+      this.dataStream = new BufferedOutputStream(new FileOutputStream(data), ReportFormat.BUFFER_SIZE);
+    }
+
+    void addSource(String source) {
+      sources.add(source);
+    }
+
+    void add(CoverageRecord coverageRecord) throws IOException {
+      record.reset();
+      writeRecord(record, coverageRecord);
+      if (dataSize + record.size() > Integer.MAX_VALUE) {
+        throw new IOException("Binary coverage report is too large: " + output);
+      }
+      writeString(index, coverageRecord.filename());
+      writeVarint(index, (int) dataSize);
+      writeVarint(index, record.size());
+      record.writeTo(dataStream);
+      dataSize += record.size();
+      fileCount++;
+    }
+
+    void finish() throws IOException {
+      dataStream.close();
+      try (OutputStream output = new BufferedOutputStream(new FileOutputStream(this.output), ReportFormat.BUFFER_SIZE)) {
+        DataOutputStream out = new DataOutputStream(output);
+        writeHeader(out, stamp, sources);
+        writeVarint(out, fileCount);
+        index.writeTo(out);
+        Files.copy(data.toPath(), out);
+        out.flush();
+      }
+    }
+
+    /**
+     * Deletes the temporary data file.
+     */
+    @Override
+    public void close() throws IOException {
+      try {
+        dataStream.close();
+      } finally {
+        Files.deleteIfExists(data.toPath());
+      }
+    }
+
+  }
+
+  /**
+   * Size and modification time of a report, which tell whether a binary report converted from it is still up to date.
+   * The modification time is only as precise as the file system.
+   */
+  static final class ReportStamp {
+
+    static final ReportStamp NONE = new ReportStamp(-1, 0);
+
+    private final long size;
+    private final long lastModifiedNanos;
+
+    private ReportStamp(long size, long lastModifiedNanos) {
+      this.size = size;
+      this.lastModifiedNanos = lastModifiedNanos;
+    }
+
+    static ReportStamp of(Path report) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(report, BasicFileAttributes.class);
+      return new ReportStamp(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+    }
+
+    static ReportStamp readFrom(DataInput in) throws IOException {
+      return new ReportStamp(in.readLong(), in.readLong());
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+      out.writeLong(size);
+      out.writeLong(lastModifiedNanos);
+    }
+
+    boolean isKnown() {
+      return size >= 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ReportStamp)) {
+        return false;
+      }
+      ReportStamp other = (ReportStamp) o;
+      return size == other.size && lastModifiedNanos == other.lastModifiedNanos;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(size) + Long.hashCode(lastModifiedNanos);
+    }
+
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import com.google.common.collect.ImmutableList;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.measures.Metrics;
+
+import java.util.List;
+
+/**
+ * Root module measures of the summary mode, see {@link CoberturaPlugin#COBERTURA_SUMMARY_ONLY_PROPERTY}. They are read from
+ * the totals of the reports, and are distinct from the coverage measures SonarQube computes from the lines of the files.
+ */
+public final class CoberturaMetrics implements Metrics {
+
+  public static final Metric<Double> SUMMARY_LINE_COVERAGE = new Metric.Builder("cobertura_summary_line_coverage",
+    "Cobertura summary line coverage", Metric.ValueType.PERCENT)
+    .setDescription("Line coverage of the totals of the Cobertura reports")
+    .setDirection(Metric.DIRECTION_BETTER)
+    .setQualitative(true)
+    .setDomain(CoreMetrics.DOMAIN_COVERAGE)
+    .setBestValue(100.0)
+    .setWorstValue(0.0)
+    .create();
+
+  public static final Metric<Double> SUMMARY_BRANCH_COVERAGE = new Metric.Builder("cobertura_summary_branch_coverage",
+    "Cobertura summary branch coverage", Metric.ValueType.PERCENT)
+    .setDescription("Branch coverage of the totals of the Cobertura reports")
+    .setDirection(Metric.DIRECTION_BETTER)
+    .setQualitative(true)
+    .setDomain(CoreMetrics.DOMAIN_COVERAGE)
+    .setBestValue(100.0)
+    .setWorstValue(0.0)
+    .create();
+
+  public static final Metric<Integer> SUMMARY_LINES_TO_COVER = new Metric.Builder("cobertura_summary_lines_to_cover",
+    "Cobertura summary lines to cover", Metric.ValueType.INT)
+    .setDescription("Lines to cover of the totals of the Cobertura reports")
+    .setDirection(Metric.DIRECTION_NONE)
+    .setQualitative(false)
+    .setDomain(CoreMetrics.DOMAIN_COVERAGE)
+    .create();
+
+  public static final Metric<Integer> SUMMARY_UNCOVERED_LINES = new Metric.Builder("cobertura_summary_uncovered_lines",
+    "Cobertura summary uncovered lines", Metric.ValueType.INT)
+    .setDescription("Uncovered lines of the totals of the Cobertura reports")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(CoreMetrics.DOMAIN_COVERAGE)
+    .setBestValue(0.0)
+    .create();
+
+  @Override
+  public List<Metric> getMetrics() {
+    return ImmutableList.of(SUMMARY_LINE_COVERAGE, SUMMARY_BRANCH_COVERAGE, SUMMARY_LINES_TO_COVER, SUMMARY_UNCOVERED_LINES);
+  }
+
+}
@@ -22,6 +22,7 @@ package org.sonar.plugins.cobertura;
 import com.google.common.collect.ImmutableList;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.Plugin;
+import org.sonar.api.PropertyType;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.resources.Qualifiers;
 
@@ -30,6 +31,17 @@ import java.util.List;
 public final class CoberturaPlugin implements Plugin{
 
   public static final String COBERTURA_REPORT_PATH_PROPERTY = "sonar.cobertura.reportPath";
+  public static final String COBERTURA_PARSER_PROPERTY = "sonar.cobertura.parser";
+  public static final String COBERTURA_MEMORY_CACHE_SIZE_PROPERTY = "sonar.cobertura.memoryCache.size";
+  public static final String COBERTURA_EXPORT_STATS_PROPERTY = "sonar.cobertura.exportStats";
+  public static final String COBERTURA_RESOLUTION_PROPERTY = "sonar.cobertura.resolution";
+  public static final String COBERTURA_DISCOVERY_PROPERTY = "sonar.cobertura.discovery";
+  public static final String COBERTURA_CHANGED_FILES_ONLY_PROPERTY = "sonar.cobertura.changedFilesOnly";
+  public static final String COBERTURA_OFF_HEAP_PROPERTY = "sonar.cobertura.offHeap";
+  public static final String COBERTURA_DISK_CACHE_SIZE_PROPERTY = "sonar.cobertura.diskCache.size";
+  public static final String COBERTURA_DISK_CACHE_PATH_PROPERTY = "sonar.cobertura.diskCache.path";
+  public static final String COBERTURA_SUMMARY_ONLY_PROPERTY = "sonar.cobertura.summaryOnly";
+  public static final String COBERTURA_REPORT_INDEX_PROPERTY = "sonar.cobertura.reportIndex";
 
   public List<Object> getExtensions() {
     return ImmutableList.of(
@@ -37,12 +49,128 @@ public final class CoberturaPlugin implements Plugin{
                     .category(CoreProperties.CATEGORY_CODE_COVERAGE)
                     .subCategory("Cobertura")
                     .name("Report path")
-                    .description("Path (absolute or relative) to Cobertura xml report file.")
+                    .description("Comma-separated paths (absolute or relative) or glob patterns of Cobertura xml report files. "
+                      + "Coverage of several reports is merged per source file. A path may also be a named pipe, or - for the standard input.")
                     .defaultValue("target/site/cobertura/coverage.xml")
                     .onQualifiers(Qualifiers.PROJECT)
                     .build(),
+            PropertyDefinition.builder(COBERTURA_DISCOVERY_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Report discovery")
+                    .description("When no report is found at the report path, search the module for Cobertura reports named "
+                      + "coverage*.xml, e.g. in Gradle or custom build directories. Source, dependency and nested module "
+                      + "directories are not searched.")
+                    .type(PropertyType.BOOLEAN)
+                    .defaultValue("false")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_PARSER_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Parser engine")
+                    .description("Engine used to parse xml reports: 'stax' for standard XML parsing, or 'mmap' to scan "
+                      + "memory-mapped reports byte by byte, which is much faster on large reports. "
+                      + "'mmap' falls back to 'stax' on unexpected content.")
+                    .type(PropertyType.SINGLE_SELECT_LIST)
+                    .options("stax", "mmap")
+                    .defaultValue("stax")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_MEMORY_CACHE_SIZE_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Shared report cache size")
+                    .description("Memory, in MB, of the cache which lets modules of one analysis parse a shared report only once. "
+                      + "0 disables the cache, and each module then only parses the classes it contains.")
+                    .type(PropertyType.INTEGER)
+                    .defaultValue("0")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_EXPORT_STATS_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Export statistics")
+                    .description("Write the sizes, counts and time of each phase of the import to " + ParsingStats.JSON_FILENAME
+                      + " in the working directory of the analysis.")
+                    .type(PropertyType.BOOLEAN)
+                    .defaultValue("false")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_RESOLUTION_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("File resolution")
+                    .description("How the filenames of reports are resolved to source files: 'classname' looks them up under the "
+                      + "source directories of the module, then by class name with the Java plugin. 'sources' joins them with "
+                      + "the source roots written in the reports, then looks them up under the source directories, without the Java plugin.")
+                    .type(PropertyType.SINGLE_SELECT_LIST)
+                    .options(InputFileIndex.CLASSNAME_RESOLUTION, InputFileIndex.SOURCES_RESOLUTION)
+                    .defaultValue(InputFileIndex.CLASSNAME_RESOLUTION)
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_CHANGED_FILES_ONLY_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Changed files only")
+                    .description("Only import the coverage of added or changed files, skipping the classes of all other files "
+                      + "while parsing, e.g. in pull request or short-lived branch analyses.")
+                    .type(PropertyType.BOOLEAN)
+                    .defaultValue("false")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_OFF_HEAP_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Off-heap merge")
+                    .description("Merge the coverage of several reports in a temporary file of the working directory rather "
+                      + "than in memory, for very large reports. The file is deleted once coverage is saved.")
+                    .type(PropertyType.BOOLEAN)
+                    .defaultValue("false")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_DISK_CACHE_SIZE_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Disk cache size")
+                    .description("Size in MB of a cache of the parsed reports kept on disk between analyses, so that an "
+                      + "unchanged report is not parsed again. 0 disables the cache.")
+                    .type(PropertyType.INTEGER)
+                    .defaultValue("0")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_DISK_CACHE_PATH_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Disk cache path")
+                    .description("Directory of the disk cache, absolute or relative to the module base directory. "
+                      + "Defaults to cobertura-cache in the SonarQube user home.")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_SUMMARY_ONLY_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Summary only")
+                    .description("Only read the totals of the reports and save them as Cobertura summary measures of the root module, "
+                      + "without importing the coverage of each line, e.g. in fast feedback builds.")
+                    .type(PropertyType.BOOLEAN)
+                    .defaultValue("false")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
+            PropertyDefinition.builder(COBERTURA_REPORT_INDEX_PROPERTY)
+                    .category(CoreProperties.CATEGORY_CODE_COVERAGE)
+                    .subCategory("Cobertura")
+                    .name("Report index")
+                    .description("Write an index of the classes of each XML report next to it, as coverage.xml.idx, so that "
+                      + "modules which share a large report only read their own classes.")
+                    .type(PropertyType.BOOLEAN)
+                    .defaultValue("false")
+                    .onQualifiers(Qualifiers.PROJECT)
+                    .build(),
 
-            CoberturaSensor.class);
+            CoberturaMetrics.class,
+            CoberturaSensor.class,
+            CoberturaSummarySensor.class);
   }
 
   @Override
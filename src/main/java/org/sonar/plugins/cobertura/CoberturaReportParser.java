@@ -19,133 +19,519 @@
  */
 package org.sonar.plugins.cobertura;
 
-import org.apache.commons.io.FilenameUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang.StringUtils;
-import org.codehaus.staxmate.in.SMHierarchicCursor;
-import org.codehaus.staxmate.in.SMInputCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.coverage.NewCoverage;
 import org.sonar.plugins.java.api.JavaResourceLocator;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.File;
-import java.text.ParseException;
-
-import static java.util.Locale.ENGLISH;
-import javax.xml.stream.XMLInputFactory;
-import org.codehaus.staxmate.SMInputFactory;
-import org.sonar.api.batch.sensor.coverage.NewCoverage;
-import static org.sonar.api.utils.ParsingUtils.parseNumber;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class CoberturaReportParser {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(CoberturaReportParser.class);
 
-  private final JavaResourceLocator javaResourceLocator;
-  private final SensorContext context;
+  private static final XMLInputFactory XML_INPUT_FACTORY = initStax();
+
+  private final ReportFilter filter;
+  @Nullable
+  private final Consumer<ReportCoverage> packageSink;
+  private ReportCoverage coverage = new ReportCoverage();
+  // Flight Recorder event of the current package, see ImportEvents
+  private Object packageEvent;
+  private long packageFirstClass;
 
-  private CoberturaReportParser(SensorContext context, JavaResourceLocator javaResourceLocator) {
-    this.context = context;
-    this.javaResourceLocator = javaResourceLocator;
+  private CoberturaReportParser(ReportFilter filter, @Nullable Consumer<ReportCoverage> packageSink) {
+    this.filter = filter;
+    this.packageSink = packageSink;
   }
 
   /**
    * Parse a Cobertura xml report and create measures accordingly
    */
   public static void parseReport(File xmlFile, SensorContext context, JavaResourceLocator javaResourceLocator) {
-    new CoberturaReportParser(context, javaResourceLocator).parse(xmlFile);
+    parseReports(Collections.singletonList(xmlFile), context, javaResourceLocator);
+  }
+
+  /**
+   * Parse several Cobertura xml reports, merge them per source file and create measures accordingly
+   */
+  public static void parseReports(List<File> xmlFiles, SensorContext context, JavaResourceLocator javaResourceLocator) {
+    parseReports(xmlFiles, context, new InputFileIndex(context.fileSystem(), context.config(), javaResourceLocator),
+      CoberturaSettings.from(context.config()));
+  }
+
+  /**
+   * A single XML report goes through a {@link CoveragePipeline}. Otherwise, classes which cannot be resolved in the index
+   * are skipped while parsing, unless reports are shared between modules: they are then parsed completely once, and
+   * only filtered afterwards.
+   */
+  static ParsingStats parseReports(List<File> xmlFiles, SensorContext context, InputFileIndex inputFileIndex, CoberturaSettings settings) {
+    ParsingStats stats = new ParsingStats();
+    if (inputFileIndex.changedFilesOnly()) {
+      LOGGER.info("Only importing the Cobertura coverage of added and changed files ({} is enabled)",
+        CoberturaPlugin.COBERTURA_CHANGED_FILES_ONLY_PROPERTY);
+    }
+    if (inputFileIndex.isEmpty()) {
+      LOGGER.info("No {}file of the module to import Cobertura coverage to, reports are not parsed",
+        inputFileIndex.changedFilesOnly() ? "changed " : "");
+      stats.finish(inputFileIndex);
+      return stats;
+    }
+    if (isPipelined(xmlFiles, settings)) {
+      CoveragePipeline.run(xmlFiles.get(0), settings, context, inputFileIndex, stats);
+      stats.finish(inputFileIndex);
+      return stats;
+    }
+    if (settings.offHeap()) {
+      try (OffHeapCoverageStore store = OffHeapCoverageStore.create(context.fileSystem().workDir())) {
+        parse(xmlFiles, xmlFile -> load(xmlFile, settings, inputFileIndex, stats, store));
+        stats.counted(store);
+        saveCoverage(store, context, inputFileIndex, stats);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to release the off-heap coverage store", e);
+      }
+      stats.finish(inputFileIndex);
+      return stats;
+    }
+    ReportCoverage coverage = parse(xmlFiles, xmlFile -> load(xmlFile, settings, inputFileIndex, stats));
+    stats.counted(coverage);
+    saveCoverage(coverage, context, inputFileIndex, stats);
+    stats.finish(inputFileIndex);
+    return stats;
+  }
+
+  /**
+   * A single XML report can be merged while it is parsed, package after package. Several reports are parsed
+   * concurrently instead, binary reports are read in one go, and indexed reports only read the classes of the module. A single
+   * {@link ReportStream} is always pipelined, as it cannot be cached nor read twice.
+   */
+  private static boolean isPipelined(List<File> xmlFiles, CoberturaSettings settings) {
+    if (xmlFiles.size() != 1) {
+      return false;
+    }
+    if (ReportStream.isStream(xmlFiles.get(0))) {
+      return true;
+    }
+    if (settings.memoryCacheBytes() > 0 || ReportIndex.isReady(xmlFiles.get(0))) {
+      return false;
+    }
+    try {
+      return ReportFormat.detect(xmlFiles.get(0)) != ReportFormat.BINARY;
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + xmlFiles.get(0), e);
+    }
+  }
+
+  private static ReportCoverage load(File xmlFile, CoberturaSettings settings, ReportFilter filter, ParsingStats stats) {
+    long start = System.nanoTime();
+    try {
+      if (settings.memoryCacheBytes() > 0 && !ReportStream.isStream(xmlFile)) {
+        ParsedReport report = ParsedReportCache.INSTANCE.get(xmlFile, settings.memoryCacheBytes(),
+          file -> ParsedReport.of(parse(file, settings.engine(), ReportFilter.ALL, stats)));
+        ReportCoverage coverage = new ReportCoverage();
+        report.mergeInto(coverage, filter);
+        return coverage;
+      }
+      return parse(xmlFile, settings.engine(), filter, stats);
+    } finally {
+      stats.parsed(xmlFile, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Appends the coverage of the report to the store, package after package when it is parsed, so that the returned
+   * coverage is empty.
+   */
+  private static ReportCoverage load(File xmlFile, CoberturaSettings settings, ReportFilter filter, ParsingStats stats,
+    OffHeapCoverageStore store) {
+    if (settings.memoryCacheBytes() > 0 && !ReportStream.isStream(xmlFile)) {
+      store.append(load(xmlFile, settings, filter, stats));
+      return new ReportCoverage();
+    }
+    long start = System.nanoTime();
+    try {
+      store.append(parse(xmlFile, settings.engine(), filter, stats, store::append));
+      return new ReportCoverage();
+    } finally {
+      stats.parsed(xmlFile, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Reports are parsed concurrently, on at most one thread per available processor, and merged as soon as
+   * they are parsed so that no more than one parsed report per thread is kept in memory.
+   */
+  static ReportCoverage parse(List<File> xmlFiles, Function<File, ReportCoverage> parser) {
+    if (xmlFiles.size() == 1) {
+      return parser.apply(xmlFiles.get(0));
+    }
+    int threads = Math.min(xmlFiles.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+      new ThreadFactoryBuilder().setNameFormat("cobertura-report-parser-%d").setDaemon(true).build());
+    try {
+      CompletionService<ReportCoverage> completionService = new ExecutorCompletionService<>(executor);
+      for (File xmlFile : xmlFiles) {
+        completionService.submit(() -> parser.apply(xmlFile));
+      }
+      ReportCoverage merged = new ReportCoverage();
+      for (int i = 0; i < xmlFiles.size(); i++) {
+        merged.merge(completionService.take().get());
+      }
+      return merged;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing Cobertura reports", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Unable to parse Cobertura reports", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
-  private void parse(File xmlFile) {
+  /**
+   * Compressed reports and streams are always parsed with StAX, while being decompressed or written. Binary reports are
+   * read whatever the engine.
+   */
+  static ReportCoverage parse(File xmlFile, ParserEngine engine, ReportFilter filter) {
+    return parse(xmlFile, engine, filter, new ParsingStats());
+  }
+
+  static ReportCoverage parse(File xmlFile, ParserEngine engine, ReportFilter filter, ParsingStats stats) {
+    return parse(xmlFile, engine, filter, stats, null);
+  }
+
+  /**
+   * @param packageSink if not null, receives the coverage collected so far at the end of each package of XML reports,
+   *                    so that only what follows the last package is returned
+   */
+  static ReportCoverage parse(File xmlFile, ParserEngine engine, ReportFilter filter, ParsingStats stats,
+    @Nullable Consumer<ReportCoverage> packageSink) {
+    Object event = ImportEvents.beginReport();
     try {
-      SMInputFactory inputFactory = initStax();
+      return parseWithEngine(xmlFile, engine, filter, stats, packageSink);
+    } finally {
+      ImportEvents.commitReport(event, xmlFile, engine);
+    }
+  }
 
-      SMHierarchicCursor rootCursor = inputFactory.rootElementCursor(xmlFile);
-      while (rootCursor.getNext() != null) {
-        collectPackageMeasures(rootCursor.descendantElementCursor("package"));
+  private static ReportCoverage parseWithEngine(File xmlFile, ParserEngine engine, ReportFilter filter, ParsingStats stats,
+    @Nullable Consumer<ReportCoverage> packageSink) {
+    if (ReportStream.isStream(xmlFile)) {
+      return parseWithStax(xmlFile, filter, stats, packageSink);
+    }
+    int[] sentPackages = {0};
+    try {
+      ReportFormat format = ReportFormat.detect(xmlFile);
+      if (format == ReportFormat.BINARY) {
+        return BinaryCoverageFormat.read(xmlFile, filter);
+      }
+      ReportIndex index = format == ReportFormat.XML && filter != ReportFilter.ALL ? ReportIndex.ready(xmlFile) : null;
+      if (index != null) {
+        return index.read(xmlFile, filter);
+      }
+      if (engine == ParserEngine.MMAP && format == ReportFormat.XML) {
+        return MappedReportParser.parse(xmlFile, filter, packageSink == null ? null : packageCoverage -> {
+          packageSink.accept(packageCoverage);
+          sentPackages[0]++;
+        });
       }
-      rootCursor.getStreamReader().closeCompletely();
+    } catch (MappedReportParser.UnsupportedContentException e) {
+      LOGGER.info("Unsupported content in {} ({}), falling back to StAX parsing", xmlFile, e.getMessage());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + xmlFile, e);
     }
-    catch (XMLStreamException e) {
+    if (packageSink == null || sentPackages[0] == 0) {
+      return parseWithStax(xmlFile, filter, stats, packageSink);
+    }
+    // packages are delimited the same way by both engines: those already sent must not be sent twice
+    int[] skippedPackages = {0};
+    return parseWithStax(xmlFile, filter, stats, packageCoverage -> {
+      if (skippedPackages[0] < sentPackages[0]) {
+        skippedPackages[0]++;
+      } else {
+        packageSink.accept(packageCoverage);
+      }
+    });
+  }
+
+  private static ReportCoverage parseWithStax(File xmlFile, ReportFilter filter, ParsingStats stats, @Nullable Consumer<ReportCoverage> packageSink) {
+    CoberturaReportParser parser = new CoberturaReportParser(filter, packageSink);
+    try (InputStream input = ReportFormat.open(stats.timed(ReportStream.open(xmlFile)))) {
+      XMLStreamReader reader = createXMLStreamReader(input);
+      try {
+        parser.collect(reader);
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
       throw new IllegalStateException("XML is not valid", e);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + xmlFile, e);
     }
+    return parser.coverage;
   }
 
-  private static SMInputFactory initStax() {
+  private static XMLInputFactory initStax() {
     final XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
     xmlFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
     xmlFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
     xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
     xmlFactory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
-    return new SMInputFactory(xmlFactory);
+    return xmlFactory;
+  }
+
+  private static XMLStreamReader createXMLStreamReader(InputStream input) throws XMLStreamException {
+    // XMLInputFactory is not guaranteed to be thread-safe, only its configuration is shared by the readers it creates
+    synchronized (XML_INPUT_FACTORY) {
+      return XML_INPUT_FACTORY.createXMLStreamReader(input);
+    }
+  }
+
+  /**
+   * Only the <code>&lt;line&gt;</code> children of <code>&lt;class&gt;&lt;lines&gt;</code> are read,
+   * <code>&lt;methods&gt;</code> report the same lines again.
+   */
+  private void collect(XMLStreamReader reader) throws XMLStreamException {
+    FileCoverage fileCoverage = null;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = reader.getLocalName();
+        if ("line".equals(name)) {
+          if (fileCoverage != null) {
+            collectLine(reader, fileCoverage);
+          }
+        } else if ("class".equals(name)) {
+          fileCoverage = collectClass(reader);
+        } else if ("package".equals(name)) {
+          collectPackage(reader);
+        } else if ("methods".equals(name)) {
+          skipElement(reader);
+        } else if ("source".equals(name)) {
+          collectSource(reader.getElementText().trim());
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        String name = reader.getLocalName();
+        if ("class".equals(name)) {
+          fileCoverage = null;
+        } else if ("package".equals(name)) {
+          endPackage();
+        }
+      }
+    }
   }
 
-  private void collectPackageMeasures(SMInputCursor pack) throws XMLStreamException {
-    while (pack.getNext() != null) {
-      collectFileMeasures(pack.descendantElementCursor("class"));
+  private void collectSource(String source) {
+    if (!source.isEmpty()) {
+      coverage.addSource(source);
+      filter.sourceRoot(source);
     }
   }
 
-  private boolean resourceExists(InputFile file) {
-    return file != null && context.fileSystem().inputFile(context.fileSystem().predicates().is(file.file())) != null;
+  private void collectPackage(XMLStreamReader pack) {
+    coverage.countPackage();
+    packageEvent = ImportEvents.beginPackage(attribute(pack, "name"));
+    packageFirstClass = coverage.classCount();
   }
 
-  private void collectFileMeasures(SMInputCursor clazz) throws XMLStreamException {
-    while (clazz.getNext() != null) {
-      String fileName = clazz.getAttrValue("filename");
-      collectFileData(clazz, fileName);
+  private void endPackage() {
+    ImportEvents.commitPackage(packageEvent, coverage.classCount() - packageFirstClass);
+    packageEvent = null;
+    if (packageSink != null) {
+      packageSink.accept(coverage);
+      coverage = new ReportCoverage();
     }
   }
 
-  private void collectFileData(SMInputCursor clazz, String filename) throws XMLStreamException {
-    String className = sanitizeFilename(filename);
-    InputFile resource = javaResourceLocator.findResourceByClassName(className);
-    NewCoverage coverage = null;
-    boolean lineAdded = false;
-    if (resourceExists(resource)) {
-      coverage = context.newCoverage();
-      coverage.onFile(resource);
+  /**
+   * @return null if the class is skipped
+   */
+  @CheckForNull
+  private FileCoverage collectClass(XMLStreamReader clazz) throws XMLStreamException {
+    coverage.countClass();
+    String filename = attribute(clazz, "filename");
+    if (filename == null) {
+      throw new XMLStreamException("Missing filename attribute", clazz.getLocation());
     }
+    if (!filter.acceptFile(filename)) {
+      skipElement(clazz);
+      return null;
+    }
+    return coverage.fileCoverage(filename);
+  }
 
-    SMInputCursor line = clazz.childElementCursor("lines").advance().childElementCursor("line");
-    while (line.getNext() != null) {
-      int lineId = Integer.parseInt(line.getAttrValue("number"));
-      try {
-        if (coverage != null) {
-          coverage.lineHits(lineId, (int) parseNumber(line.getAttrValue("hits"), ENGLISH));
-          lineAdded = true;
-        }
+  @CheckForNull
+  private static String attribute(XMLStreamReader element, String localName) {
+    for (int i = 0; i < element.getAttributeCount(); i++) {
+      if (localName.equals(element.getAttributeLocalName(i))) {
+        return element.getAttributeValue(i);
+      }
+    }
+    return null;
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
       }
-      catch (ParseException e) {
-        throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * Attributes are read by index and numbers are scanned by hand. The only allocations left per line are the
+   * attribute value strings created by the StAX implementation itself.
+   */
+  private static void collectLine(XMLStreamReader line, FileCoverage fileCoverage) throws XMLStreamException {
+    int number = -1;
+    int hits = -1;
+    boolean branch = false;
+    String conditionCoverage = null;
+    for (int i = 0; i < line.getAttributeCount(); i++) {
+      String name = line.getAttributeLocalName(i);
+      if ("number".equals(name)) {
+        number = parseNumber(line.getAttributeValue(i), line);
+      } else if ("hits".equals(name)) {
+        hits = parseNumber(line.getAttributeValue(i), line);
+      } else if ("branch".equals(name)) {
+        branch = "true".equals(line.getAttributeValue(i));
+      } else if ("condition-coverage".equals(name)) {
+        conditionCoverage = line.getAttributeValue(i);
       }
+    }
+    if (number < 0 || hits < 0) {
+      throw new XMLStreamException("Missing number or hits attribute", line.getLocation());
+    }
+    fileCoverage.lineHits(number, hits);
+    if (branch && conditionCoverage != null) {
+      collectConditions(number, conditionCoverage, fileCoverage, line);
+    }
+  }
 
-      String isBranch = line.getAttrValue("branch");
-      String text = line.getAttrValue("condition-coverage");
-      if (StringUtils.equals(isBranch, "true") && StringUtils.isNotBlank(text)) {
-        String[] conditions = StringUtils.split(StringUtils.substringBetween(text, "(", ")"), "/");
-        if (coverage != null) {
-          coverage.conditions(lineId, Integer.parseInt(conditions[1]), Integer.parseInt(conditions[0]));
-          lineAdded = true;
+  /**
+   * Parses the "covered/total" part of condition coverages such as "50% (1/2)".
+   */
+  private static void collectConditions(int number, String conditionCoverage, FileCoverage fileCoverage, XMLStreamReader line) throws XMLStreamException {
+    int start = conditionCoverage.indexOf('(');
+    if (start < 0) {
+      if (StringUtils.isBlank(conditionCoverage)) {
+        return;
+      }
+      throw new XMLStreamException("Invalid condition coverage: " + conditionCoverage, line.getLocation());
+    }
+    int covered = 0;
+    int total = 0;
+    boolean slash = false;
+    int i = start + 1;
+    for (; i < conditionCoverage.length() && conditionCoverage.charAt(i) != ')'; i++) {
+      char c = conditionCoverage.charAt(i);
+      if (c == '/' && !slash) {
+        slash = true;
+      } else if (c >= '0' && c <= '9') {
+        if (slash) {
+          total = total * 10 + (c - '0');
+        } else {
+          covered = covered * 10 + (c - '0');
         }
+      } else if (c != ' ') {
+        throw new XMLStreamException("Invalid condition coverage: " + conditionCoverage, line.getLocation());
+      }
+    }
+    if (!slash || i == conditionCoverage.length()) {
+      throw new XMLStreamException("Invalid condition coverage: " + conditionCoverage, line.getLocation());
+    }
+    fileCoverage.conditions(number, total, covered);
+  }
+
+  /**
+   * Same leniency as the English <code>NumberFormat</code> used before: grouping separators are ignored and
+   * decimals are truncated. Values which do not fit in an int are capped.
+   */
+  static int parseNumber(CharSequence value, XMLStreamReader reader) throws XMLStreamException {
+    long number = 0;
+    boolean digits = false;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits = true;
+        number = Math.min(number * 10 + (c - '0'), Integer.MAX_VALUE);
+      } else if (c == '.') {
+        break;
+      } else if (c != ',') {
+        throw new XMLStreamException("Invalid number: " + value, reader.getLocation());
       }
     }
-    if (coverage != null) {
-      // If there was no lines covered or uncovered (e.g. everything is ignored), but the file exists then Sonar would report the file as uncovered
-      // so adding a fake one to line number 1
-      if (!lineAdded) {
-        coverage.lineHits(1, 1);
+    if (!digits) {
+      throw new XMLStreamException("Invalid number: " + value, reader.getLocation());
+    }
+    return (int) number;
+  }
+
+  static void saveCoverage(ReportCoverage reportCoverage, SensorContext context, InputFileIndex inputFileIndex, ParsingStats stats) {
+    long start = System.nanoTime();
+    for (Map.Entry<String, FileCoverage> entry : reportCoverage.byFilename().entrySet()) {
+      InputFile resource = inputFileIndex.resolve(entry.getKey());
+      if (resource != null) {
+        save(resource, entry.getKey(), entry.getValue(), context, stats);
+      } else {
+        LOGGER.debug("Resource not found for {}", entry.getKey());
+      }
+    }
+    stats.savedIn(System.nanoTime() - start);
+  }
+
+  /**
+   * Files are read back from the store one at a time, and only if they are resolved.
+   */
+  private static void saveCoverage(OffHeapCoverageStore store, SensorContext context, InputFileIndex inputFileIndex, ParsingStats stats) {
+    long start = System.nanoTime();
+    for (String filename : store.filenames()) {
+      InputFile resource = inputFileIndex.resolve(filename);
+      if (resource != null) {
+        save(resource, filename, store.read(filename), context, stats);
+      } else {
+        LOGGER.debug("Resource not found for {}", filename);
       }
-      coverage.save();
     }
+    stats.savedIn(System.nanoTime() - start);
   }
 
-  private static String sanitizeFilename(String s) {
-    String fileName = FilenameUtils.removeExtension(s);
-    fileName = fileName.replace('/', '.').replace('\\', '.');
-    return fileName;
+  private static void save(InputFile resource, String filename, FileCoverage fileCoverage, SensorContext context, ParsingStats stats) {
+    NewCoverage coverage = context.newCoverage();
+    coverage.onFile(resource);
+    Object event = ImportEvents.beginFileSave();
+    fileCoverage.save(coverage);
+    ImportEvents.commitFileSave(event, filename, fileCoverage);
+    stats.saved(fileCoverage);
   }
 
 }
@@ -33,6 +33,12 @@ import org.sonar.plugins.java.Java;
 import org.sonar.plugins.java.api.JavaResourceLocator;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
 
 public class CoberturaSensor implements Sensor {
 
@@ -42,34 +48,90 @@ public class CoberturaSensor implements Sensor {
   private PathResolver pathResolver;
   private final Configuration configuration;
   private final JavaResourceLocator javaResourceLocator;
+  private final Supplier<InputStream> standardInput;
 
   public CoberturaSensor(FileSystem fs, PathResolver pathResolver, Settings settings,
                          JavaResourceLocator javaResourceLocator, Configuration configuration) {
+    this(fs, pathResolver, settings, javaResourceLocator, configuration, () -> System.in);
+  }
+
+  CoberturaSensor(FileSystem fs, PathResolver pathResolver, Settings settings,
+                  JavaResourceLocator javaResourceLocator, Configuration configuration, Supplier<InputStream> standardInput) {
     this.fs = fs;
     this.pathResolver = pathResolver;
     this.configuration=configuration;
     this.javaResourceLocator = javaResourceLocator;
+    this.standardInput = standardInput;
   }
 
   @Override
   public void describe(SensorDescriptor descriptor) {
-    descriptor.onlyOnLanguage(Java.KEY).onlyOnFileType(Type.MAIN).name("CoberturaSensor");
+    descriptor.onlyOnLanguage(Java.KEY).onlyOnFileType(Type.MAIN).name("CoberturaSensor")
+      .onlyWhenConfiguration(configuration -> !CoberturaSummarySensor.isSummaryOnly(configuration));
   }
 
   @Override
   public void execute(SensorContext context) {
-    String path=configuration.get(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY).orElse(null);
-    File report = pathResolver.relativeFile(fs.baseDir(), path);
-    if (!report.isFile() || !report.exists() || !report.canRead()) {
-      LOGGER.warn("Cobertura report not found at {}", report);
-    } else {
-      parseReport(report, context);
+    List<File> reports = locateReports(fs, pathResolver, configuration, standardInput);
+    if (reports.isEmpty()) {
+      return;
     }
+    if (configuration.getBoolean(CoberturaPlugin.COBERTURA_REPORT_INDEX_PROPERTY).orElse(false)) {
+      reports.forEach(ReportIndex::ensure);
+    }
+    ReportDiskCache diskCache = ReportDiskCache.from(configuration, fs.baseDir(), pathResolver);
+    parseReports(diskCache.cached(readyIndexes(reports)), context);
+    diskCache.evict();
+  }
+
+  static List<File> locateReports(FileSystem fs, PathResolver pathResolver, Configuration configuration, Supplier<InputStream> standardInput) {
+    String[] paths = configuration.getStringArray(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY);
+    List<File> reports = ReportLocator.locate(fs.baseDir(), pathResolver, paths, standardInput);
+    if (reports.isEmpty() && configuration.getBoolean(CoberturaPlugin.COBERTURA_DISCOVERY_PROPERTY).orElse(false)) {
+      reports = ReportDiscovery.INSTANCE.discover(fs.baseDir());
+      if (reports.isEmpty()) {
+        LOGGER.info("No Cobertura report discovered under {}", fs.baseDir());
+      }
+    }
+    return reports;
+  }
+
+  /**
+   * Reports indexed by the {@link CoverageWatcher} since their last change are read from their index.
+   */
+  private static List<File> readyIndexes(List<File> reports) {
+    List<File> files = new ArrayList<>();
+    for (File report : reports) {
+      File index = CoverageWatcher.readyIndex(report);
+      if (!index.equals(report)) {
+        LOGGER.info("Using the index {} of {}", index.getName(), report);
+      }
+      files.add(index);
+    }
+    return files;
   }
 
   protected void parseReport(File xmlFile, SensorContext context) {
-    LOGGER.info("parsing {}", xmlFile);
-    CoberturaReportParser.parseReport(xmlFile, context, javaResourceLocator);
+    parseReports(Collections.singletonList(xmlFile), context);
+  }
+
+  protected void parseReports(List<File> xmlFiles, SensorContext context) {
+    for (File xmlFile : xmlFiles) {
+      LOGGER.info("parsing {}", xmlFile);
+    }
+    Object event = ImportEvents.beginImport();
+    ParsingStats stats = CoberturaReportParser.parseReports(xmlFiles, context, new InputFileIndex(fs, configuration, javaResourceLocator),
+      CoberturaSettings.from(configuration));
+    ImportEvents.commitImport(event, xmlFiles.size(), stats);
+    stats.log(LOGGER);
+    if (configuration.getBoolean(CoberturaPlugin.COBERTURA_EXPORT_STATS_PROPERTY).orElse(false)) {
+      File statsFile = new File(fs.workDir(), ParsingStats.JSON_FILENAME);
+      try {
+        stats.writeJson(statsFile);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to write Cobertura statistics to " + statsFile, e);
+      }
+    }
   }
 
   @Override
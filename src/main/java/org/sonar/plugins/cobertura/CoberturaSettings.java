@@ -0,0 +1,66 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.sonar.api.config.Configuration;
+
+/**
+ * Parsing settings of one sensor execution.
+ */
+final class CoberturaSettings {
+
+  private static final long MEGABYTE = 1024L * 1024L;
+
+  private final ParserEngine engine;
+  private final long memoryCacheBytes;
+  private final boolean offHeap;
+
+  private CoberturaSettings(ParserEngine engine, long memoryCacheBytes, boolean offHeap) {
+    this.engine = engine;
+    this.memoryCacheBytes = memoryCacheBytes;
+    this.offHeap = offHeap;
+  }
+
+  static CoberturaSettings from(Configuration configuration) {
+    return new CoberturaSettings(
+      ParserEngine.fromConfiguration(configuration),
+      configuration.getLong(CoberturaPlugin.COBERTURA_MEMORY_CACHE_SIZE_PROPERTY).orElse(0L) * MEGABYTE,
+      configuration.getBoolean(CoberturaPlugin.COBERTURA_OFF_HEAP_PROPERTY).orElse(false));
+  }
+
+  ParserEngine engine() {
+    return engine;
+  }
+
+  /**
+   * @return the size bound of the {@link ParsedReportCache}, or 0 if reports must not be shared between modules
+   */
+  long memoryCacheBytes() {
+    return memoryCacheBytes;
+  }
+
+  /**
+   * @return whether several reports are merged in an {@link OffHeapCoverageStore} rather than in the heap
+   */
+  boolean offHeap() {
+    return offHeap;
+  }
+
+}
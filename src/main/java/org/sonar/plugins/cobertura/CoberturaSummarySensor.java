@@ -0,0 +1,76 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.sensor.Sensor;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.SensorDescriptor;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.scan.filesystem.PathResolver;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Saves the totals of the reports in summary mode, see {@link CoberturaPlugin#COBERTURA_SUMMARY_ONLY_PROPERTY}, instead
+ * of the {@link CoberturaSensor}. The totals cannot be split by module, so the sensor is global: it only runs on the
+ * root module, and the other modules get no summary measures.
+ */
+public class CoberturaSummarySensor implements Sensor {
+
+  private final FileSystem fs;
+  private final PathResolver pathResolver;
+  private final Configuration configuration;
+  private final Supplier<InputStream> standardInput;
+
+  public CoberturaSummarySensor(FileSystem fs, PathResolver pathResolver, Configuration configuration) {
+    this(fs, pathResolver, configuration, () -> System.in);
+  }
+
+  CoberturaSummarySensor(FileSystem fs, PathResolver pathResolver, Configuration configuration, Supplier<InputStream> standardInput) {
+    this.fs = fs;
+    this.pathResolver = pathResolver;
+    this.configuration = configuration;
+    this.standardInput = standardInput;
+  }
+
+  @Override
+  public void describe(SensorDescriptor descriptor) {
+    descriptor.name("CoberturaSummarySensor")
+      .onlyWhenConfiguration(CoberturaSummarySensor::isSummaryOnly)
+      .global();
+  }
+
+  static boolean isSummaryOnly(Configuration configuration) {
+    return configuration.getBoolean(CoberturaPlugin.COBERTURA_SUMMARY_ONLY_PROPERTY).orElse(false);
+  }
+
+  @Override
+  public void execute(SensorContext context) {
+    List<File> reports = CoberturaSensor.locateReports(fs, pathResolver, configuration, standardInput);
+    if (!reports.isEmpty()) {
+      ReportSummary.read(reports).save(context);
+    }
+  }
+
+}
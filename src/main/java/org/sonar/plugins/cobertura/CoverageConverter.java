@@ -0,0 +1,78 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.sonar.plugins.cobertura.BinaryCoverageFormat.ReportStamp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Command line converter of Cobertura reports to the {@link BinaryCoverageFormat}, meant to be run once after the
+ * tests so that every following analysis reads the small indexed file instead of the XML:
+ * <pre>
+ * java -cp &lt;plugin and its dependencies&gt; org.sonar.plugins.cobertura.CoverageConverter coverage.xml... coverage.ccov
+ * </pre>
+ * Several input reports are merged into one binary report. Reports are streamed package by package to the binary
+ * report, so that converting a report takes little heap whatever its size.
+ */
+public final class CoverageConverter {
+
+  private CoverageConverter() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: CoverageConverter <report>... <output>");
+      System.exit(1);
+    }
+    File[] reports = new File[args.length - 1];
+    for (int i = 0; i < reports.length; i++) {
+      reports[i] = new File(args[i]);
+    }
+    convert(reports, new File(args[args.length - 1]));
+  }
+
+  static void convert(File[] reports, File output) throws IOException {
+    convert(reports, output, ReportStamp.NONE);
+  }
+
+  static void convert(File[] reports, File output, ReportStamp stamp) throws IOException {
+    try (BinaryCoverageFormat.Writer writer = new BinaryCoverageFormat.Writer(output, stamp)) {
+      CoverageRecordReader reader = new CoverageRecordReader();
+      for (File report : reports) {
+        reader.read(report, writer::addSource, record -> add(writer, record));
+      }
+      writer.finish();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static void add(BinaryCoverageFormat.Writer writer, CoverageRecord record) {
+    try {
+      writer.add(record);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
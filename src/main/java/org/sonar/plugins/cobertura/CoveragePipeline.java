@@ -0,0 +1,121 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.sonar.api.batch.sensor.SensorContext;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Imports one report in two overlapping stages:
+ * <ol>
+ *   <li>a reader thread parses the report, skipping the classes which the {@link InputFileIndex} cannot resolve, and
+ *   hands over the coverage of each package as soon as it ends;</li>
+ *   <li>the calling thread merges the coverage of each package per filename, and saves every file once the report has
+ *   been read, so that a file reported in several packages is saved once, and the {@link SensorContext} is only used
+ *   by one thread.</li>
+ * </ol>
+ * At most {@link #MAX_PENDING_PACKAGES} packages are waiting to be merged: the reader blocks beyond. Only the coverage
+ * of the files of the module is kept, the classes of other files are skipped without being read.
+ */
+final class CoveragePipeline {
+
+  static final int MAX_PENDING_PACKAGES = 16;
+
+  private static final ReportCoverage END = new ReportCoverage();
+
+  private final File report;
+  private final CoberturaSettings settings;
+  private final InputFileIndex inputFileIndex;
+  private final ParsingStats stats;
+  private final BlockingQueue<ReportCoverage> pending = new ArrayBlockingQueue<>(MAX_PENDING_PACKAGES);
+  // time the reader has spent waiting for the merger
+  private long blockedNanos;
+  private volatile Throwable failure;
+
+  private CoveragePipeline(File report, CoberturaSettings settings, InputFileIndex inputFileIndex, ParsingStats stats) {
+    this.report = report;
+    this.settings = settings;
+    this.inputFileIndex = inputFileIndex;
+    this.stats = stats;
+  }
+
+  static void run(File report, CoberturaSettings settings, SensorContext context, InputFileIndex inputFileIndex, ParsingStats stats) {
+    new CoveragePipeline(report, settings, inputFileIndex, stats).run(context);
+  }
+
+  private void run(SensorContext context) {
+    Thread reader = new Thread(this::read, "cobertura-report-reader");
+    reader.setDaemon(true);
+    reader.start();
+    ReportCoverage coverage = new ReportCoverage();
+    try {
+      ReportCoverage next;
+      while ((next = pending.take()) != END) {
+        coverage.merge(next);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while importing " + report, e);
+    } finally {
+      reader.interrupt();
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    stats.counted(coverage);
+    CoberturaReportParser.saveCoverage(coverage, context, inputFileIndex, stats);
+  }
+
+  private void read() {
+    long start = System.nanoTime();
+    try {
+      CoverageRecordReader.filtering(settings.engine(), inputFileIndex).readPackages(report, stats, this::handOver);
+      stats.parsed(report, System.nanoTime() - start - blockedNanos);
+    } catch (CancellationException e) {
+      // the merger has stopped
+      return;
+    } catch (RuntimeException | Error e) {
+      failure = e;
+    }
+    try {
+      pending.put(END);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void handOver(ReportCoverage packageCoverage) {
+    long start = System.nanoTime();
+    try {
+      pending.put(packageCoverage);
+      blockedNanos += System.nanoTime() - start;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException();
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+/**
+ * Immutable and compact coverage of one source file: hits of each reported line, and conditions of each branch line,
+ * in ascending line order.
+ *
+ * @see CoverageRecordReader
+ */
+public final class CoverageRecord {
+
+  private static final int OBJECT_OVERHEAD = 16;
+
+  private final String filename;
+  private final int[] lines;
+  private final int[] hits;
+  private final int[] branchLines;
+  private final int[] conditions;
+  private final int[] coveredConditions;
+
+  CoverageRecord(String filename, int[] lines, int[] hits, int[] branchLines, int[] conditions, int[] coveredConditions) {
+    this.filename = filename;
+    this.lines = lines;
+    this.hits = hits;
+    this.branchLines = branchLines;
+    this.conditions = conditions;
+    this.coveredConditions = coveredConditions;
+  }
+
+  /**
+   * @return the <code>filename</code> attribute of the <code>&lt;class&gt;</code> elements of the file
+   */
+  public String filename() {
+    return filename;
+  }
+
+  public int lineCount() {
+    return lines.length;
+  }
+
+  public int line(int index) {
+    return lines[index];
+  }
+
+  public int hits(int index) {
+    return hits[index];
+  }
+
+  public int branchLineCount() {
+    return branchLines.length;
+  }
+
+  public int branchLine(int index) {
+    return branchLines[index];
+  }
+
+  public int conditions(int index) {
+    return conditions[index];
+  }
+
+  public int coveredConditions(int index) {
+    return coveredConditions[index];
+  }
+
+  long estimatedBytes() {
+    return 7L * OBJECT_OVERHEAD + 2L * filename.length() + 4L * (2L * lines.length + 3L * branchLines.length);
+  }
+
+}
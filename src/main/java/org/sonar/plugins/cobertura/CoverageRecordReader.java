@@ -0,0 +1,109 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Reads the coverage of Cobertura reports, XML or binary, without any SonarQube analysis:
+ * <pre>
+ * new CoverageRecordReader().read(report, record -&gt; ...);
+ * </pre>
+ * Records are handed over at the end of each <code>&lt;package&gt;</code> element, so that a report is never held in
+ * memory as a whole. A file whose classes are spread over several packages, or over several reports, gets one record
+ * per package: consumers merge them if needed.
+ * <p>
+ * Readers are immutable, and can be shared between threads to read several reports concurrently. The sensor reads
+ * reports through the same path.
+ */
+public final class CoverageRecordReader {
+
+  private final ParserEngine engine;
+  private final ReportFilter filter;
+
+  /**
+   * Reads every file with the {@link ParserEngine#MMAP} engine.
+   */
+  public CoverageRecordReader() {
+    this(ParserEngine.MMAP, ReportFilter.ALL);
+  }
+
+  /**
+   * @param filenameFilter accepts the <code>filename</code> attributes of the classes to read, the lines of the other
+   *                       classes are skipped
+   */
+  public CoverageRecordReader(ParserEngine engine, Predicate<String> filenameFilter) {
+    this(engine, (ReportFilter) filenameFilter::test);
+  }
+
+  private CoverageRecordReader(ParserEngine engine, ReportFilter filter) {
+    this.engine = engine;
+    this.filter = filter;
+  }
+
+  /**
+   * Reads the classes accepted by the filter, which is also handed over the source roots of the reports.
+   */
+  static CoverageRecordReader filtering(ParserEngine engine, ReportFilter filter) {
+    return new CoverageRecordReader(engine, filter);
+  }
+
+  /**
+   * @throws IllegalStateException if the report cannot be read or parsed
+   */
+  public void read(File report, Consumer<CoverageRecord> consumer) {
+    read(report, source -> {
+    }, consumer);
+  }
+
+  /**
+   * Also hands over each <code>&lt;source&gt;</code> root of the report once, which may be after the records of the
+   * first packages.
+   *
+   * @throws IllegalStateException if the report cannot be read or parsed
+   */
+  public void read(File report, Consumer<String> sourceConsumer, Consumer<CoverageRecord> consumer) {
+    Set<String> sources = new HashSet<>();
+    readPackages(report, new ParsingStats(), packageCoverage -> {
+      for (String source : packageCoverage.sources()) {
+        if (sources.add(source)) {
+          sourceConsumer.accept(source);
+        }
+      }
+      for (Map.Entry<String, FileCoverage> entry : packageCoverage.byFilename().entrySet()) {
+        consumer.accept(entry.getValue().toRecord(entry.getKey()));
+      }
+    });
+  }
+
+  /**
+   * Hands over the coverage collected at the end of each package of XML reports, then what follows the last package.
+   * Binary reports are handed over at once.
+   */
+  void readPackages(File report, ParsingStats stats, Consumer<ReportCoverage> packageSink) {
+    packageSink.accept(CoberturaReportParser.parse(report, engine, filter, stats, packageSink));
+  }
+
+}
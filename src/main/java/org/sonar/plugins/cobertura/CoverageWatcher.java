@@ -0,0 +1,259 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.cobertura.BinaryCoverageFormat.ReportStamp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running companion process which converts Cobertura reports to the {@link BinaryCoverageFormat} as soon as
+ * the tests write them, so that the analysis does not have to parse them:
+ * <pre>
+ * java -cp &lt;plugin and its dependencies&gt; org.sonar.plugins.cobertura.CoverageWatcher directory...
+ * </pre>
+ * The directories are watched recursively, except the directories excluded from the {@link ReportDiscovery}. Once
+ * a report named <code>coverage*.xml</code> has not changed for {@link #QUIET_MILLIS} ms, it is converted to an index
+ * next to it, named after the report with the {@link #INDEX_SUFFIX} suffix. The index records the size and the
+ * modification time of the report it has been converted from, and the sensor reads it instead of the report only
+ * while the report still has them.
+ */
+public final class CoverageWatcher implements Closeable {
+
+  static final String INDEX_SUFFIX = ".ccov";
+  static final long QUIET_MILLIS = 500;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CoverageWatcher.class);
+
+  private final WatchService watchService;
+  private final PathMatcher reportMatcher = FileSystems.getDefault().getPathMatcher(ReportDiscovery.REPORT_NAME_PATTERN);
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  // report -> time of its last change, in nanoseconds
+  private final Map<Path, Long> pending = new LinkedHashMap<>();
+
+  CoverageWatcher(List<Path> roots) throws IOException {
+    watchService = FileSystems.getDefault().newWatchService();
+    try {
+      for (Path root : roots) {
+        register(root);
+      }
+    } catch (IOException | RuntimeException e) {
+      watchService.close();
+      throw e;
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.err.println("Usage: CoverageWatcher <directory>...");
+      System.exit(1);
+    }
+    List<Path> roots = new ArrayList<>();
+    for (String arg : args) {
+      Path root = Paths.get(arg).toAbsolutePath().normalize();
+      if (!Files.isDirectory(root)) {
+        System.err.println("Not a directory: " + root);
+        System.exit(1);
+      }
+      roots.add(root);
+    }
+    try (CoverageWatcher watcher = new CoverageWatcher(roots)) {
+      while (!Thread.currentThread().isInterrupted()) {
+        watcher.poll(Long.MAX_VALUE);
+      }
+    }
+  }
+
+  /**
+   * @return the index of the report if it is up to date, the report itself otherwise
+   */
+  static File readyIndex(File report) {
+    if (ReportStream.isStream(report)) {
+      return report;
+    }
+    File index = new File(report.getPath() + INDEX_SUFFIX);
+    if (!index.isFile()) {
+      return report;
+    }
+    try {
+      ReportStamp stamp = BinaryCoverageFormat.readStamp(index);
+      return stamp.isKnown() && stamp.equals(ReportStamp.of(report.toPath())) ? index : report;
+    } catch (IOException e) {
+      LOGGER.debug("Ignoring the index of " + report, e);
+      return report;
+    }
+  }
+
+  /**
+   * Writes the index of the report, unless the report changes meanwhile.
+   *
+   * @return true if the index has been written
+   */
+  static boolean index(Path report) throws IOException {
+    ReportStamp stamp = ReportStamp.of(report);
+    Path index = report.resolveSibling(report.getFileName() + INDEX_SUFFIX);
+    Path temp = report.resolveSibling("." + report.getFileName() + INDEX_SUFFIX + ".tmp");
+    try {
+      CoverageConverter.convert(new File[] {report.toFile()}, temp.toFile(), stamp);
+      if (!stamp.equals(ReportStamp.of(report))) {
+        return false;
+      }
+      try {
+        Files.move(temp, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+      }
+      return true;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Handles the changes notified within the timeout, then indexes the reports which have not changed for
+   * {@link #QUIET_MILLIS} ms.
+   */
+  void poll(long timeoutMillis) throws IOException, InterruptedException {
+    WatchKey key = watchService.poll(pending.isEmpty() ? timeoutMillis : Math.min(timeoutMillis, QUIET_MILLIS), TimeUnit.MILLISECONDS);
+    while (key != null) {
+      handle(key);
+      key = watchService.poll();
+    }
+    indexQuietReports();
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void handle(WatchKey key) throws IOException {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (directory == null) {
+        continue;
+      }
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        register(directory);
+        continue;
+      }
+      Path child = directory.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+        register(child);
+      } else if (reportMatcher.matches(child.getFileName())) {
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+          pending.remove(child);
+          Files.deleteIfExists(child.resolveSibling(child.getFileName() + INDEX_SUFFIX));
+        } else {
+          pending.put(child, System.nanoTime());
+        }
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  /**
+   * Watches the directory tree, and queues the reports it already contains which have no up to date index.
+   */
+  private void register(Path root) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (!dir.equals(root) && ReportDiscovery.isExcluded(dir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        directories.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE), dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (reportMatcher.matches(file.getFileName()) && readyIndex(file.toFile()).equals(file.toFile())) {
+          pending.put(file, System.nanoTime());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        LOGGER.debug("Unable to visit {}", file, e);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void indexQuietReports() {
+    long now = System.nanoTime();
+    Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Path, Long> entry = it.next();
+      if (TimeUnit.NANOSECONDS.toMillis(now - entry.getValue()) < QUIET_MILLIS) {
+        continue;
+      }
+      it.remove();
+      Path report = entry.getKey();
+      if (Files.isRegularFile(report) && ReportDiscovery.isCoberturaReport(report)) {
+        indexQuietly(report);
+      }
+    }
+  }
+
+  private static void indexQuietly(Path report) {
+    long start = System.nanoTime();
+    try {
+      if (index(report)) {
+        LOGGER.info("Indexed {} in {} ms", report, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    } catch (IOException | RuntimeException e) {
+      // a report which is still being written is indexed again once it changes
+      LOGGER.warn("Unable to index " + report, e);
+    }
+  }
+
+}
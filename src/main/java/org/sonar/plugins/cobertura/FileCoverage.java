@@ -0,0 +1,200 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.sonar.api.batch.sensor.coverage.NewCoverage;
+
+import java.util.Arrays;
+
+/**
+ * Line hits and branch conditions collected for one source file, possibly from several
+ * <code>&lt;class&gt;</code> entries and several reports.
+ * <p>
+ * Values are stored in primitive arrays indexed by line number, as line numbers of a source file are dense.
+ * Hits are stored plus one so that zero means that the line has not been reported, and therefore saturate at
+ * {@link #MAX_HITS}; condition arrays are only allocated once a branch is reported.
+ */
+class FileCoverage {
+
+  static final int MAX_HITS = Integer.MAX_VALUE - 1;
+  /**
+   * The largest line number whose array index does not exceed the maximum array length of common VMs.
+   */
+  static final int MAX_LINE = Integer.MAX_VALUE - 9;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private int[] hitsPlusOne = new int[0];
+  private int[] conditions;
+  private int[] coveredConditions;
+  private int maxLine;
+  private boolean empty = true;
+
+  void lineHits(int line, int hits) {
+    ensureCapacity(line);
+    int previous = hitsPlusOne[line];
+    hitsPlusOne[line] = (previous == 0 ? Math.min(hits, MAX_HITS) : saturatedAdd(previous - 1, hits)) + 1;
+  }
+
+  /**
+   * When a line is reported several times, the best branch coverage is kept, as SonarQube does when merging coverage.
+   */
+  void conditions(int line, int conditionCount, int coveredConditionCount) {
+    ensureCapacity(line);
+    if (conditions == null) {
+      conditions = new int[hitsPlusOne.length];
+      coveredConditions = new int[hitsPlusOne.length];
+    }
+    conditions[line] = Math.max(conditions[line], conditionCount);
+    coveredConditions[line] = Math.max(coveredConditions[line], coveredConditionCount);
+  }
+
+  void merge(FileCoverage other) {
+    for (int line = 1; line <= other.maxLine; line++) {
+      if (other.hitsPlusOne[line] != 0) {
+        lineHits(line, other.hitsPlusOne[line] - 1);
+      }
+      if (other.conditions != null && other.conditions[line] != 0) {
+        conditions(line, other.conditions[line], other.coveredConditions[line]);
+      }
+    }
+  }
+
+  void merge(CoverageRecord record) {
+    for (int i = 0; i < record.lineCount(); i++) {
+      lineHits(record.line(i), record.hits(i));
+    }
+    for (int i = 0; i < record.branchLineCount(); i++) {
+      conditions(record.branchLine(i), record.conditions(i), record.coveredConditions(i));
+    }
+  }
+
+  CoverageRecord toRecord(String filename) {
+    int lineCount = 0;
+    int branchLineCount = 0;
+    for (int line = 1; line <= maxLine; line++) {
+      if (hitsPlusOne[line] != 0) {
+        lineCount++;
+      }
+      if (conditions != null && conditions[line] != 0) {
+        branchLineCount++;
+      }
+    }
+    int[] lines = new int[lineCount];
+    int[] hits = new int[lineCount];
+    int[] branchLines = new int[branchLineCount];
+    int[] conditionCounts = new int[branchLineCount];
+    int[] coveredConditionCounts = new int[branchLineCount];
+    int lineIndex = 0;
+    int branchIndex = 0;
+    for (int line = 1; line <= maxLine; line++) {
+      if (hitsPlusOne[line] != 0) {
+        lines[lineIndex] = line;
+        hits[lineIndex] = hitsPlusOne[line] - 1;
+        lineIndex++;
+      }
+      if (conditions != null && conditions[line] != 0) {
+        branchLines[branchIndex] = line;
+        conditionCounts[branchIndex] = conditions[line];
+        coveredConditionCounts[branchIndex] = coveredConditions[line];
+        branchIndex++;
+      }
+    }
+    return new CoverageRecord(filename, lines, hits, branchLines, conditionCounts, coveredConditionCounts);
+  }
+
+  int lineCount() {
+    int count = 0;
+    for (int line = 1; line <= maxLine; line++) {
+      if (hitsPlusOne[line] != 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  long conditionCount() {
+    long count = 0;
+    if (conditions != null) {
+      for (int line = 1; line <= maxLine; line++) {
+        count += conditions[line];
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the approximate heap size of the arrays of this coverage
+   */
+  long estimatedBytes() {
+    return 4L * hitsPlusOne.length * (conditions == null ? 1 : 3);
+  }
+
+  boolean isEmpty() {
+    return empty;
+  }
+
+  void save(NewCoverage coverage) {
+    // If there was no lines covered or uncovered (e.g. everything is ignored), but the file exists then Sonar would report the file as uncovered
+    // so adding a fake one to line number 1
+    if (isEmpty()) {
+      coverage.lineHits(1, 1);
+    }
+    for (int line = 1; line <= maxLine; line++) {
+      if (hitsPlusOne[line] != 0) {
+        coverage.lineHits(line, hitsPlusOne[line] - 1);
+      }
+    }
+    if (conditions != null) {
+      for (int line = 1; line <= maxLine; line++) {
+        if (conditions[line] != 0) {
+          coverage.conditions(line, conditions[line], coveredConditions[line]);
+        }
+      }
+    }
+    coverage.save();
+  }
+
+  private void ensureCapacity(int line) {
+    if (line < 1) {
+      throw new IllegalArgumentException("Line number must be strictly positive: " + line);
+    }
+    if (line > MAX_LINE) {
+      throw new IllegalArgumentException("Line number must not exceed " + MAX_LINE + ": " + line);
+    }
+    empty = false;
+    if (line > maxLine) {
+      maxLine = line;
+    }
+    if (line >= hitsPlusOne.length) {
+      int capacity = (int) Math.min(MAX_LINE + 1L, Math.max(line + 1L, Math.max(INITIAL_CAPACITY, hitsPlusOne.length * 2L)));
+      hitsPlusOne = Arrays.copyOf(hitsPlusOne, capacity);
+      if (conditions != null) {
+        conditions = Arrays.copyOf(conditions, capacity);
+        coveredConditions = Arrays.copyOf(coveredConditions, capacity);
+      }
+    }
+  }
+
+  private static int saturatedAdd(int hits, int moreHits) {
+    return (int) Math.min(MAX_HITS, (long) hits + moreHits);
+  }
+
+}
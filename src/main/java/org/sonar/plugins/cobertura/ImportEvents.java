@@ -0,0 +1,312 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * JDK Flight Recorder events of the import, shown next to the GC and I/O events of the scanner when it runs with
+ * <code>-XX:StartFlightRecording</code>:
+ * <ul>
+ *   <li>one event per sensor execution and per report;</li>
+ *   <li>one event per <code>&lt;package&gt;</code>, with the number of its classes which are parsed;</li>
+ *   <li>one event per {@link #FILE_SAMPLING} resolved and saved files, on average.</li>
+ * </ul>
+ * Callers only handle opaque events, which are null when the runtime has no Flight Recorder or no recording enables
+ * them: events then cost no more than checking whether they are enabled. Flight Recorder classes are only loaded
+ * when available.
+ */
+final class ImportEvents {
+
+  static final int FILE_SAMPLING = 64;
+
+  private static final boolean AVAILABLE = isAvailable();
+
+  private ImportEvents() {
+  }
+
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.FlightRecorder", false, ImportEvents.class.getClassLoader());
+      return Recorder.isAvailable();
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  @CheckForNull
+  static Object beginImport() {
+    return AVAILABLE ? Recorder.begin(Recorder.IMPORT) : null;
+  }
+
+  static void commitImport(@Nullable Object event, int reports, ParsingStats stats) {
+    if (event != null) {
+      Recorder.commitImport((ImportEvent) event, reports, stats);
+    }
+  }
+
+  @CheckForNull
+  static Object beginReport() {
+    return AVAILABLE ? Recorder.begin(Recorder.REPORT) : null;
+  }
+
+  static void commitReport(@Nullable Object event, File report, ParserEngine engine) {
+    if (event != null) {
+      Recorder.commitReport((ReportEvent) event, report, engine);
+    }
+  }
+
+  @CheckForNull
+  static Object beginPackage(@Nullable String name) {
+    if (!AVAILABLE) {
+      return null;
+    }
+    Object event = Recorder.begin(Recorder.PACKAGE);
+    if (event != null) {
+      ((PackageEvent) event).name = name;
+    }
+    return event;
+  }
+
+  static void commitPackage(@Nullable Object event, long classes) {
+    if (event != null) {
+      Recorder.commitPackage((PackageEvent) event, classes);
+    }
+  }
+
+  @CheckForNull
+  static Object beginFileResolution() {
+    return AVAILABLE ? Recorder.beginSampled(Recorder.FILE_RESOLUTION) : null;
+  }
+
+  static void commitFileResolution(@Nullable Object event, String filename, boolean resolved) {
+    if (event != null) {
+      Recorder.commitFileResolution((FileResolutionEvent) event, filename, resolved);
+    }
+  }
+
+  @CheckForNull
+  static Object beginFileSave() {
+    return AVAILABLE ? Recorder.beginSampled(Recorder.FILE_SAVE) : null;
+  }
+
+  static void commitFileSave(@Nullable Object event, String filename, FileCoverage coverage) {
+    if (event != null) {
+      Recorder.commitFileSave((FileSaveEvent) event, filename, coverage);
+    }
+  }
+
+  static String className(String filename) {
+    int extension = filename.lastIndexOf('.');
+    String className = extension > filename.lastIndexOf('/') ? filename.substring(0, extension) : filename;
+    return className.replace('/', '.').replace('\\', '.');
+  }
+
+  /**
+   * Holds the event types, so that they are only loaded when Flight Recorder is available. The instances of each
+   * type only tell whether a recording enables it, and are never committed.
+   */
+  @IgnoreJRERequirement
+  private static final class Recorder {
+
+    private static final Event IMPORT = new ImportEvent();
+    private static final Event REPORT = new ReportEvent();
+    private static final Event PACKAGE = new PackageEvent();
+    private static final Event FILE_RESOLUTION = new FileResolutionEvent();
+    private static final Event FILE_SAVE = new FileSaveEvent();
+
+    private Recorder() {
+    }
+
+    static boolean isAvailable() {
+      return jdk.jfr.FlightRecorder.isAvailable();
+    }
+
+    @CheckForNull
+    static Event begin(Event type) {
+      if (!type.isEnabled()) {
+        return null;
+      }
+      Event event = newEvent(type);
+      event.begin();
+      return event;
+    }
+
+    @CheckForNull
+    static Event beginSampled(Event type) {
+      if (!type.isEnabled() || ThreadLocalRandom.current().nextInt(FILE_SAMPLING) != 0) {
+        return null;
+      }
+      Event event = newEvent(type);
+      event.begin();
+      return event;
+    }
+
+    private static Event newEvent(Event type) {
+      if (type == IMPORT) {
+        return new ImportEvent();
+      } else if (type == REPORT) {
+        return new ReportEvent();
+      } else if (type == PACKAGE) {
+        return new PackageEvent();
+      } else if (type == FILE_RESOLUTION) {
+        return new FileResolutionEvent();
+      }
+      return new FileSaveEvent();
+    }
+
+    static void commitImport(ImportEvent event, int reports, ParsingStats stats) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.reports = reports;
+        event.lines = stats.lines();
+        event.conditions = stats.conditions();
+        event.unresolvedClasses = stats.unresolvedCount();
+        event.commit();
+      }
+    }
+
+    static void commitReport(ReportEvent event, File report, ParserEngine engine) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.path = report.getPath();
+        event.bytes = report.length();
+        try {
+          // streams cannot be read again
+          event.format = ReportStream.isStream(report) ? "STREAM" : ReportFormat.detect(report).name();
+        } catch (IOException e) {
+          // the parser has failed as well
+        }
+        event.engine = engine.name();
+        event.commit();
+      }
+    }
+
+    static void commitPackage(PackageEvent event, long classes) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.classes = classes;
+        event.commit();
+      }
+    }
+
+    static void commitFileResolution(FileResolutionEvent event, String filename, boolean resolved) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.className = className(filename);
+        event.resolved = resolved;
+        event.commit();
+      }
+    }
+
+    static void commitFileSave(FileSaveEvent event, String filename, FileCoverage coverage) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.className = className(filename);
+        event.lines = coverage.lineCount();
+        event.conditions = coverage.conditionCount();
+        event.commit();
+      }
+    }
+
+  }
+
+  @IgnoreJRERequirement
+  @Name("org.sonar.cobertura.Import")
+  @Label("Cobertura Import")
+  @Category({"SonarQube", "Cobertura"})
+  @Description("Import of the Cobertura reports of a module")
+  static final class ImportEvent extends Event {
+    @Label("Reports")
+    int reports;
+    @Label("Lines")
+    long lines;
+    @Label("Conditions")
+    long conditions;
+    @Label("Unresolved Classes")
+    int unresolvedClasses;
+  }
+
+  @IgnoreJRERequirement
+  @Name("org.sonar.cobertura.Report")
+  @Label("Cobertura Report Parse")
+  @Category({"SonarQube", "Cobertura"})
+  @Description("Parsing of one report, including the resolution of its classes unless they are resolved separately")
+  static final class ReportEvent extends Event {
+    @Label("Path")
+    String path;
+    @Label("Size")
+    long bytes;
+    @Label("Format")
+    String format;
+    @Label("Engine")
+    String engine;
+  }
+
+  @IgnoreJRERequirement
+  @Name("org.sonar.cobertura.Package")
+  @Label("Cobertura Package")
+  @Category({"SonarQube", "Cobertura"})
+  @Description("Parsing of one package of a report")
+  static final class PackageEvent extends Event {
+    @Label("Name")
+    String name;
+    @Label("Classes")
+    long classes;
+  }
+
+  @IgnoreJRERequirement
+  @Name("org.sonar.cobertura.FileResolution")
+  @Label("Cobertura File Resolution")
+  @Category({"SonarQube", "Cobertura"})
+  @Description("Resolution of the filename of a class to a file of the module, sampled")
+  static final class FileResolutionEvent extends Event {
+    @Label("Class Name")
+    String className;
+    @Label("Resolved")
+    boolean resolved;
+  }
+
+  @IgnoreJRERequirement
+  @Name("org.sonar.cobertura.FileSave")
+  @Label("Cobertura File Save")
+  @Category({"SonarQube", "Cobertura"})
+  @Description("Saving of the coverage of one file, sampled")
+  static final class FileSaveEvent extends Event {
+    @Label("Class Name")
+    String className;
+    @Label("Lines")
+    long lines;
+    @Label("Conditions")
+    long conditions;
+  }
+
+}
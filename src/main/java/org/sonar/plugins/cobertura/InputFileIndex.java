@@ -0,0 +1,278 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.apache.commons.io.FilenameUtils;
+import org.sonar.api.batch.fs.FilePredicates;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.config.Configuration;
+import org.sonar.plugins.java.Java;
+import org.sonar.plugins.java.api.JavaResourceLocator;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the <code>filename</code> attribute of Cobertura classes to the main Java files of the module.
+ * <p>
+ * The index is built once per sensor execution: each file is keyed by its path relative to the source directory
+ * containing it, which is what Cobertura writes. Filenames which are not in the index are looked up with the
+ * {@link JavaResourceLocator}. Every resolution, successful or not, is memoized.
+ * <p>
+ * With the {@value #SOURCES_RESOLUTION} resolution, each file is also keyed by its absolute path, and filenames are
+ * first joined with the <code>&lt;source&gt;</code> roots of the reports, which Cobertura writes before any package.
+ * The {@link JavaResourceLocator} is then never used: a filename is resolved by a few hash lookups. Misses are not
+ * memoized, as a later report may bring the root under which the file is.
+ * <p>
+ * With {@link CoberturaPlugin#COBERTURA_CHANGED_FILES_ONLY_PROPERTY}, only the files which are added or changed are
+ * indexed, so that the classes of all other files are skipped while parsing.
+ * <p>
+ * As a {@link ReportFilter}, the index rejects classes which cannot be resolved, so that their lines are not read.
+ * Packages are never rejected as a whole: the {@link JavaResourceLocator} resolves classes by their declared package,
+ * even when their file is in another directory.
+ */
+class InputFileIndex implements ReportFilter {
+
+  static final String SOURCES_PROPERTY = "sonar.sources";
+  static final String CLASSNAME_RESOLUTION = "classname";
+  static final String SOURCES_RESOLUTION = "sources";
+
+  private final JavaResourceLocator javaResourceLocator;
+  @Nullable
+  private final Path baseDir;
+  private final boolean reportSources;
+  private final boolean changedFilesOnly;
+  private final Map<Path, InputFile> inputFilesByPath = new HashMap<>();
+  private final Set<Path> sourceRoots = new CopyOnWriteArraySet<>();
+  private final Set<InputFile> inputFiles = new HashSet<>();
+  private final Map<String, InputFile> inputFilesByFilename = new HashMap<>();
+  private final ConcurrentMap<String, Optional<InputFile>> resolved = new ConcurrentHashMap<>();
+  private final Set<String> missed = ConcurrentHashMap.newKeySet();
+  private final long indexNanos;
+  private final AtomicLong lookupNanos = new AtomicLong();
+
+  InputFileIndex(FileSystem fs, Configuration configuration, JavaResourceLocator javaResourceLocator) {
+    long start = System.nanoTime();
+    this.javaResourceLocator = javaResourceLocator;
+    File moduleBaseDir = fs.baseDir();
+    this.baseDir = moduleBaseDir == null ? null : moduleBaseDir.toPath().toAbsolutePath().normalize();
+    this.reportSources = isSourcesResolution(configuration);
+    this.changedFilesOnly = configuration.getBoolean(CoberturaPlugin.COBERTURA_CHANGED_FILES_ONLY_PROPERTY).orElse(false);
+    List<Path> sourceDirs = sourceDirs(moduleBaseDir, configuration.getStringArray(SOURCES_PROPERTY));
+    FilePredicates predicates = fs.predicates();
+    for (InputFile inputFile : fs.inputFiles(predicates.and(predicates.hasLanguage(Java.KEY), predicates.hasType(InputFile.Type.MAIN)))) {
+      if (changedFilesOnly && inputFile.status() == InputFile.Status.SAME) {
+        continue;
+      }
+      inputFiles.add(inputFile);
+      if (reportSources && inputFile.path() != null) {
+        inputFilesByPath.put(inputFile.path().toAbsolutePath().normalize(), inputFile);
+      }
+      String filename = coberturaFilename(inputFile, sourceDirs);
+      if (filename != null) {
+        inputFilesByFilename.put(filename, inputFile);
+      }
+    }
+    indexNanos = System.nanoTime() - start;
+  }
+
+  private static boolean isSourcesResolution(Configuration configuration) {
+    String resolution = configuration.get(CoberturaPlugin.COBERTURA_RESOLUTION_PROPERTY).orElse(CLASSNAME_RESOLUTION).trim();
+    if (SOURCES_RESOLUTION.equalsIgnoreCase(resolution)) {
+      return true;
+    }
+    if (CLASSNAME_RESOLUTION.equalsIgnoreCase(resolution)) {
+      return false;
+    }
+    throw new IllegalArgumentException("Unknown value '" + resolution + "' for " + CoberturaPlugin.COBERTURA_RESOLUTION_PROPERTY);
+  }
+
+  @Override
+  public boolean acceptFile(String filename) {
+    return resolve(filename) != null;
+  }
+
+  /**
+   * Thread-safe. Ignored unless filenames are resolved with the {@value #SOURCES_RESOLUTION} resolution.
+   * Relative roots are resolved against the base directory of the module, if it is known.
+   */
+  @Override
+  public void sourceRoot(String source) {
+    if (!reportSources) {
+      return;
+    }
+    try {
+      Path sourceRoot = baseDir == null ? Paths.get(source) : baseDir.resolve(source);
+      sourceRoots.add(sourceRoot.normalize());
+    } catch (InvalidPathException e) {
+      // a root written on another platform cannot match any file here
+    }
+  }
+
+  /**
+   * Thread-safe.
+   */
+  @CheckForNull
+  InputFile resolve(String filename) {
+    Optional<InputFile> inputFile = resolved.get(filename);
+    if (inputFile == null) {
+      long start = System.nanoTime();
+      Object event = ImportEvents.beginFileResolution();
+      inputFile = Optional.ofNullable(lookup(filename));
+      ImportEvents.commitFileResolution(event, filename, inputFile.isPresent());
+      if (inputFile.isPresent() || !reportSources) {
+        resolved.putIfAbsent(filename, inputFile);
+      } else {
+        missed.add(filename);
+      }
+      lookupNanos.addAndGet(System.nanoTime() - start);
+    }
+    return inputFile.orElse(null);
+  }
+
+  boolean isEmpty() {
+    return inputFiles.isEmpty();
+  }
+
+  boolean changedFilesOnly() {
+    return changedFilesOnly;
+  }
+
+  /**
+   * @return the filenames which have been looked up without success, sorted
+   */
+  List<String> unresolvedFilenames() {
+    List<String> unresolved = new ArrayList<>();
+    for (Map.Entry<String, Optional<InputFile>> entry : resolved.entrySet()) {
+      if (!entry.getValue().isPresent()) {
+        unresolved.add(entry.getKey());
+      }
+    }
+    for (String filename : missed) {
+      if (!resolved.containsKey(filename)) {
+        unresolved.add(filename);
+      }
+    }
+    Collections.sort(unresolved);
+    return unresolved;
+  }
+
+  long indexNanos() {
+    return indexNanos;
+  }
+
+  long lookupNanos() {
+    return lookupNanos.get();
+  }
+
+  private InputFile lookup(String filename) {
+    if (reportSources) {
+      InputFile inputFile = lookupInSourceRoots(filename);
+      return inputFile != null ? inputFile : inputFilesByFilename.get(normalize(filename));
+    }
+    InputFile inputFile = inputFilesByFilename.get(normalize(filename));
+    if (inputFile != null) {
+      return inputFile;
+    }
+    InputFile located;
+    // the Java plugin does not document JavaResourceLocator as thread-safe
+    synchronized (javaResourceLocator) {
+      located = javaResourceLocator.findResourceByClassName(toClassName(filename));
+    }
+    return located != null && inputFiles.contains(located) ? located : null;
+  }
+
+  @CheckForNull
+  private InputFile lookupInSourceRoots(String filename) {
+    for (Path sourceRoot : sourceRoots) {
+      try {
+        InputFile inputFile = inputFilesByPath.get(sourceRoot.resolve(normalize(filename)).normalize());
+        if (inputFile != null) {
+          return inputFile;
+        }
+      } catch (InvalidPathException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private static List<Path> sourceDirs(@Nullable File baseDir, String[] sources) {
+    List<Path> sourceDirs = new ArrayList<>();
+    for (String source : sources) {
+      File sourceDir = new File(source.trim());
+      if (!sourceDir.isAbsolute()) {
+        sourceDir = new File(baseDir, source.trim());
+      }
+      sourceDirs.add(sourceDir.toPath().toAbsolutePath().normalize());
+    }
+    return sourceDirs;
+  }
+
+  @CheckForNull
+  private static String coberturaFilename(InputFile inputFile, List<Path> sourceDirs) {
+    Path path = inputFile.path();
+    if (path == null) {
+      return null;
+    }
+    path = path.toAbsolutePath().normalize();
+    for (Path sourceDir : sourceDirs) {
+      if (path.startsWith(sourceDir) && !path.equals(sourceDir)) {
+        return normalize(sourceDir.relativize(path).toString());
+      }
+    }
+    return null;
+  }
+
+  static String normalize(String filename) {
+    String normalized = filename.replace('\\', '/');
+    while (normalized.startsWith("./")) {
+      normalized = normalized.substring(2);
+    }
+    while (normalized.startsWith("/")) {
+      normalized = normalized.substring(1);
+    }
+    return normalized;
+  }
+
+  private static String toClassName(String filename) {
+    String className = FilenameUtils.removeExtension(filename);
+    className = className.replace('/', '.').replace('\\', '.');
+    return className;
+  }
+
+}
@@ -0,0 +1,575 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Parser engine which memory-maps the report and scans its bytes for the few elements and attributes used by the plugin:
+ * <code>class@filename</code> and <code>line@number/hits/branch/condition-coverage</code>. Only filenames are decoded,
+ * <code>&lt;methods&gt;</code> blocks are skipped with a plain byte search.
+ * <p>
+ * The scanner only accepts the subset of XML written by Cobertura. Anything else (CDATA, entities in used attributes,
+ * internal DTD subsets, multi-byte encodings other than UTF-8, reports larger than 2 GB) raises an
+ * {@link UnsupportedContentException} so that the caller can fall back to the StAX engine.
+ */
+final class MappedReportParser {
+
+  private static final byte[] CLASS = ascii("class");
+  private static final byte[] LINE = ascii("line");
+  private static final byte[] METHODS = ascii("methods");
+  private static final byte[] PACKAGE = ascii("package");
+  private static final byte[] SOURCE = ascii("source");
+  private static final byte[] NAME = ascii("name");
+  private static final byte[] FILENAME = ascii("filename");
+  private static final byte[] NUMBER = ascii("number");
+  private static final byte[] HITS = ascii("hits");
+  private static final byte[] BRANCH = ascii("branch");
+  private static final byte[] CONDITION_COVERAGE = ascii("condition-coverage");
+  private static final byte[] TRUE = ascii("true");
+  private static final byte[] END_OF_METHODS = ascii("</methods>");
+  private static final byte[] END_OF_CLASS = ascii("</class>");
+  private static final byte[] END_OF_SOURCE = ascii("</source");
+  private static final byte[] END_OF_COMMENT = ascii("-->");
+  private static final byte[] END_OF_PROCESSING_INSTRUCTION = ascii("?>");
+  private static final byte[] CDATA = ascii("<![CDATA[");
+  private static final byte[] COMMENT = ascii("<!--");
+  private static final byte[] ENCODING = ascii("encoding");
+
+  private final ByteBuffer buffer;
+  private final int limit;
+  private final ReportFilter filter;
+  @Nullable
+  private final Consumer<ReportCoverage> packageSink;
+  @Nullable
+  private ClassLocator classLocator;
+  private ReportCoverage coverage = new ReportCoverage();
+  private Charset charset = StandardCharsets.UTF_8;
+  private FileCoverage fileCoverage;
+  private int pos;
+  // Flight Recorder event of the current package, see ImportEvents
+  private Object packageEvent;
+  private long packageFirstClass;
+
+  // attribute being read by nextAttribute()
+  private int nameStart;
+  private int nameEnd;
+  private int valueStart;
+  private int valueEnd;
+
+  private MappedReportParser(ByteBuffer buffer, ReportFilter filter, @Nullable Consumer<ReportCoverage> packageSink) {
+    this.buffer = buffer;
+    this.limit = buffer.limit();
+    this.filter = filter;
+    this.packageSink = packageSink;
+  }
+
+  static ReportCoverage parse(File xmlFile, ReportFilter filter) throws IOException {
+    return parse(xmlFile, filter, null);
+  }
+
+  /**
+   * @param packageSink if not null, receives the coverage collected so far at the end of each package, so that
+   *                    only the last package is returned
+   */
+  static ReportCoverage parse(File xmlFile, ReportFilter filter, @Nullable Consumer<ReportCoverage> packageSink) throws IOException {
+    try (FileChannel channel = FileChannel.open(xmlFile.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new UnsupportedContentException("report is larger than 2 GB");
+      }
+      return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), filter, packageSink);
+    }
+  }
+
+  static ReportCoverage parse(ByteBuffer buffer, ReportFilter filter) {
+    return parse(buffer, filter, null);
+  }
+
+  static ReportCoverage parse(ByteBuffer buffer, ReportFilter filter, @Nullable Consumer<ReportCoverage> packageSink) {
+    MappedReportParser parser = new MappedReportParser(buffer, filter, packageSink);
+    parser.scan();
+    return parser.coverage;
+  }
+
+  /**
+   * Parses a fragment of a report, e.g. a <code>&lt;class&gt;</code> element, which has no prolog to declare its encoding.
+   */
+  static ReportCoverage parse(ByteBuffer fragment, Charset charset, ReportFilter filter) {
+    MappedReportParser parser = new MappedReportParser(fragment, filter, null);
+    parser.charset = charset;
+    parser.scan();
+    return parser.coverage;
+  }
+
+  /**
+   * Hands over the position of each <code>&lt;class&gt;</code> element which is rejected by the filter.
+   *
+   * @return the encoding of the report
+   */
+  static Charset locate(ByteBuffer buffer, ReportFilter filter, ClassLocator classLocator) {
+    MappedReportParser parser = new MappedReportParser(buffer, filter, null);
+    parser.classLocator = classLocator;
+    parser.scan();
+    return parser.charset;
+  }
+
+  private void scan() {
+    skipByteOrderMark();
+    while ((pos = indexOf((byte) '<', pos)) >= 0) {
+      byte next = byteAt(pos + 1);
+      if (next == '?') {
+        processingInstruction();
+      } else if (next == '!') {
+        markupDeclaration();
+      } else if (next == '/') {
+        endTag();
+      } else {
+        startTag();
+      }
+    }
+  }
+
+  private void skipByteOrderMark() {
+    if (limit >= 2 && ((byteAt(0) == (byte) 0xFE && byteAt(1) == (byte) 0xFF) || (byteAt(0) == (byte) 0xFF && byteAt(1) == (byte) 0xFE))) {
+      throw new UnsupportedContentException("UTF-16 encoding");
+    }
+    if (limit >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF) {
+      pos = 3;
+    }
+    if (limit >= 2 && byteAt(pos) == 0) {
+      throw new UnsupportedContentException("multi-byte encoding");
+    }
+  }
+
+  private void processingInstruction() {
+    int end = indexOf(END_OF_PROCESSING_INSTRUCTION, pos);
+    if (end < 0) {
+      throw new UnsupportedContentException("unterminated processing instruction");
+    }
+    if (pos == 0 || (pos == 3 && byteAt(0) == (byte) 0xEF)) {
+      readEncoding(end);
+    }
+    pos = end + END_OF_PROCESSING_INSTRUCTION.length;
+  }
+
+  private void readEncoding(int end) {
+    pos += 5;
+    while (pos < end && nextAttribute()) {
+      if (nameEquals(ENCODING)) {
+        String encoding = decode(valueStart, valueEnd, StandardCharsets.US_ASCII).toUpperCase(Locale.ENGLISH);
+        if (!"UTF-8".equals(encoding) && !"US-ASCII".equals(encoding) && !"ISO-8859-1".equals(encoding)) {
+          throw new UnsupportedContentException("encoding " + encoding);
+        }
+        charset = Charset.forName(encoding);
+      }
+    }
+  }
+
+  private void markupDeclaration() {
+    if (startsWith(COMMENT, pos)) {
+      int end = indexOf(END_OF_COMMENT, pos + COMMENT.length);
+      if (end < 0) {
+        throw new UnsupportedContentException("unterminated comment");
+      }
+      pos = end + END_OF_COMMENT.length;
+    } else if (startsWith(CDATA, pos)) {
+      throw new UnsupportedContentException("CDATA section");
+    } else {
+      // <!DOCTYPE coverage SYSTEM "..."> without internal subset
+      int end = indexOf((byte) '>', pos);
+      int subset = indexOf((byte) '[', pos);
+      if (end < 0 || (subset >= 0 && subset < end)) {
+        throw new UnsupportedContentException("internal DTD subset");
+      }
+      pos = end + 1;
+    }
+  }
+
+  private void endTag() {
+    pos += 2;
+    if (nameAt(CLASS, pos)) {
+      fileCoverage = null;
+    } else if (nameAt(PACKAGE, pos)) {
+      ImportEvents.commitPackage(packageEvent, coverage.classCount() - packageFirstClass);
+      packageEvent = null;
+      if (packageSink != null) {
+        packageSink.accept(coverage);
+        coverage = new ReportCoverage();
+      }
+    }
+    int end = indexOf((byte) '>', pos);
+    if (end < 0) {
+      throw new UnsupportedContentException("unterminated end tag");
+    }
+    pos = end + 1;
+  }
+
+  private void startTag() {
+    pos++;
+    if (nameAt(LINE, pos)) {
+      pos += LINE.length;
+      if (fileCoverage != null) {
+        line();
+      } else {
+        skipAttributes();
+      }
+    } else if (nameAt(CLASS, pos)) {
+      pos += CLASS.length;
+      classTag();
+    } else if (nameAt(METHODS, pos)) {
+      pos += METHODS.length;
+      if (!skipAttributes()) {
+        skipTo(END_OF_METHODS);
+      }
+    } else if (nameAt(PACKAGE, pos)) {
+      pos += PACKAGE.length;
+      packageTag();
+    } else if (nameAt(SOURCE, pos)) {
+      pos += SOURCE.length;
+      if (!skipAttributes()) {
+        sourceText();
+      }
+    } else {
+      while (pos < limit && !isWhitespace(byteAt(pos)) && byteAt(pos) != '>' && byteAt(pos) != '/') {
+        pos++;
+      }
+      skipAttributes();
+    }
+  }
+
+  private void sourceText() {
+    int end = indexOf((byte) '<', pos);
+    if (end < 0 || !startsWith(END_OF_SOURCE, end)) {
+      throw new UnsupportedContentException("markup in source");
+    }
+    String source = decode(pos, end, charset).trim();
+    pos = end;
+    if (!source.isEmpty()) {
+      coverage.addSource(source);
+      filter.sourceRoot(source);
+    }
+  }
+
+  private void packageTag() {
+    coverage.countPackage();
+    String name = null;
+    while (nextAttribute()) {
+      if (nameEquals(NAME)) {
+        name = decode(valueStart, valueEnd, charset);
+      }
+    }
+    packageEvent = ImportEvents.beginPackage(name);
+    packageFirstClass = coverage.classCount();
+    if (isSelfClosing()) {
+      ImportEvents.commitPackage(packageEvent, 0);
+      packageEvent = null;
+    }
+  }
+
+  private void classTag() {
+    int start = pos - CLASS.length - 1;
+    coverage.countClass();
+    String filename = null;
+    while (nextAttribute()) {
+      if (nameEquals(FILENAME)) {
+        filename = decode(valueStart, valueEnd, charset);
+      }
+    }
+    if (filename == null) {
+      throw new UnsupportedContentException("class without filename");
+    }
+    boolean selfClosing = isSelfClosing();
+    if (!filter.acceptFile(filename)) {
+      if (!selfClosing) {
+        skipTo(END_OF_CLASS);
+      }
+      if (classLocator != null) {
+        classLocator.located(coverage.packageCount() - 1, filename, start, pos);
+      }
+      return;
+    }
+    FileCoverage classCoverage = coverage.fileCoverage(filename);
+    fileCoverage = selfClosing ? null : classCoverage;
+  }
+
+  /**
+   * Moves right after the given end tag. Elements which are skipped this way cannot be nested in themselves.
+   */
+  private void skipTo(byte[] endTag) {
+    int end = indexOf(endTag, pos);
+    if (end < 0) {
+      throw new UnsupportedContentException("missing " + new String(endTag, StandardCharsets.US_ASCII));
+    }
+    pos = end + endTag.length;
+  }
+
+  private void line() {
+    int number = -1;
+    int hits = -1;
+    boolean branch = false;
+    int conditionStart = -1;
+    int conditionEnd = -1;
+    while (nextAttribute()) {
+      if (nameEquals(NUMBER)) {
+        number = parseNumber(valueStart, valueEnd);
+      } else if (nameEquals(HITS)) {
+        hits = parseNumber(valueStart, valueEnd);
+      } else if (nameEquals(BRANCH)) {
+        branch = valueEquals(TRUE);
+      } else if (nameEquals(CONDITION_COVERAGE)) {
+        conditionStart = valueStart;
+        conditionEnd = valueEnd;
+      }
+    }
+    if (number < 1 || hits < 0) {
+      throw new UnsupportedContentException("line without number or hits");
+    }
+    fileCoverage.lineHits(number, hits);
+    if (branch && conditionStart >= 0) {
+      conditions(number, conditionStart, conditionEnd);
+    }
+  }
+
+  private void conditions(int number, int start, int end) {
+    int i = start;
+    while (i < end && byteAt(i) != '(') {
+      i++;
+    }
+    if (i == end) {
+      for (int j = start; j < end; j++) {
+        if (!isWhitespace(byteAt(j))) {
+          throw new UnsupportedContentException("condition coverage");
+        }
+      }
+      return;
+    }
+    int covered = 0;
+    int total = 0;
+    boolean slash = false;
+    for (i++; i < end && byteAt(i) != ')'; i++) {
+      byte b = byteAt(i);
+      if (b == '/' && !slash) {
+        slash = true;
+      } else if (b >= '0' && b <= '9') {
+        if (slash) {
+          total = total * 10 + (b - '0');
+        } else {
+          covered = covered * 10 + (b - '0');
+        }
+      } else if (b != ' ') {
+        throw new UnsupportedContentException("condition coverage");
+      }
+    }
+    if (!slash || i == end) {
+      throw new UnsupportedContentException("condition coverage");
+    }
+    fileCoverage.conditions(number, total, covered);
+  }
+
+  /**
+   * Same leniency as {@link CoberturaReportParser#parseNumber}.
+   */
+  private int parseNumber(int start, int end) {
+    long number = 0;
+    boolean digits = false;
+    for (int i = start; i < end; i++) {
+      byte b = byteAt(i);
+      if (b >= '0' && b <= '9') {
+        digits = true;
+        number = Math.min(number * 10 + (b - '0'), Integer.MAX_VALUE);
+      } else if (b == '.') {
+        break;
+      } else if (b != ',') {
+        throw new UnsupportedContentException("number");
+      }
+    }
+    if (!digits) {
+      throw new UnsupportedContentException("number");
+    }
+    return (int) number;
+  }
+
+  /**
+   * Reads the next attribute of the current tag into nameStart/nameEnd/valueStart/valueEnd.
+   *
+   * @return false, with the position on the closing '&gt;' or "/&gt;", when the tag has no more attribute
+   */
+  private boolean nextAttribute() {
+    skipWhitespaces();
+    byte b = byteAt(pos);
+    if (b == '>' || b == '/' || b == '?') {
+      return false;
+    }
+    nameStart = pos;
+    while (pos < limit && !isWhitespace(byteAt(pos)) && byteAt(pos) != '=') {
+      pos++;
+    }
+    nameEnd = pos;
+    skipWhitespaces();
+    if (byteAt(pos) != '=') {
+      throw new UnsupportedContentException("attribute without value");
+    }
+    pos++;
+    skipWhitespaces();
+    byte quote = byteAt(pos);
+    if (quote != '"' && quote != '\'') {
+      throw new UnsupportedContentException("unquoted attribute value");
+    }
+    valueStart = pos + 1;
+    valueEnd = indexOf(quote, valueStart);
+    if (valueEnd < 0) {
+      throw new UnsupportedContentException("unterminated attribute value");
+    }
+    pos = valueEnd + 1;
+    return true;
+  }
+
+  /**
+   * @return true if the tag is self-closing
+   */
+  private boolean skipAttributes() {
+    while (nextAttribute()) {
+      // attributes of other elements are not used
+    }
+    return isSelfClosing();
+  }
+
+  private boolean isSelfClosing() {
+    boolean selfClosing = byteAt(pos) == '/';
+    int end = indexOf((byte) '>', pos);
+    if (end < 0) {
+      throw new UnsupportedContentException("unterminated tag");
+    }
+    pos = end + 1;
+    return selfClosing;
+  }
+
+  private void skipWhitespaces() {
+    while (pos < limit && isWhitespace(byteAt(pos))) {
+      pos++;
+    }
+  }
+
+  private boolean nameEquals(byte[] name) {
+    return nameEnd - nameStart == name.length && startsWith(name, nameStart);
+  }
+
+  private boolean valueEquals(byte[] value) {
+    return valueEnd - valueStart == value.length && startsWith(value, valueStart);
+  }
+
+  /**
+   * @return true if the element name at the given position is exactly the given one
+   */
+  private boolean nameAt(byte[] name, int at) {
+    if (!startsWith(name, at)) {
+      return false;
+    }
+    byte next = byteAt(at + name.length);
+    return isWhitespace(next) || next == '>' || next == '/';
+  }
+
+  private boolean startsWith(byte[] bytes, int at) {
+    if (at + bytes.length > limit) {
+      return false;
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      if (buffer.get(at + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(byte b, int from) {
+    for (int i = from; i < limit; i++) {
+      if (buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int indexOf(byte[] bytes, int from) {
+    int i = from;
+    while ((i = indexOf(bytes[0], i)) >= 0) {
+      if (startsWith(bytes, i)) {
+        return i;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  private byte byteAt(int i) {
+    if (i >= limit) {
+      throw new UnsupportedContentException("unexpected end of file");
+    }
+    return buffer.get(i);
+  }
+
+  private String decode(int start, int end, Charset valueCharset) {
+    byte[] bytes = new byte[end - start];
+    for (int i = start; i < end; i++) {
+      byte b = buffer.get(i);
+      if (b == '&') {
+        throw new UnsupportedContentException("entity reference");
+      }
+      bytes[i - start] = b;
+    }
+    return new String(bytes, valueCharset);
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  interface ClassLocator {
+    /**
+     * @param packageIndex the index of the enclosing package in the report, -1 if none
+     * @param end          the position right after the element
+     */
+    void located(long packageIndex, String filename, int start, int end);
+  }
+
+  /**
+   * Raised on any input outside of the subset of XML supported by the scanner.
+   */
+  static class UnsupportedContentException extends RuntimeException {
+    UnsupportedContentException(String message) {
+      super(message);
+    }
+  }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Coverage of the files of several reports, kept in a temporary file rather than in the heap until it is saved.
+ * <p>
+ * Each appended file coverage is a segment of the file, encoded as a record of the {@link BinaryCoverageFormat}
+ * and preceded by the offset of the previous segment of the same file:
+ * <pre>
+ * previousSegmentOffset(long, -1 for the first one) recordLength(int) record
+ * </pre>
+ * The heap only holds the offset of the last segment of each file, and the segments of a file are merged when it is
+ * read. Closing the store deletes the file.
+ */
+final class OffHeapCoverageStore implements Closeable {
+
+  private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES;
+  private static final long NO_SEGMENT = -1;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final ByteBuffer writeBuffer = ByteBuffer.allocate(ReportFormat.BUFFER_SIZE);
+  private final RecordBuffer record = new RecordBuffer();
+  // filename -> offset of its last segment, in report order
+  private final Map<String, Long> lastSegments = new LinkedHashMap<>();
+  private ByteBuffer readBuffer = ByteBuffer.allocate(256);
+  private long size;
+  private long packageCount;
+  private long classCount;
+
+  private OffHeapCoverageStore(Path path, FileChannel channel) {
+    this.path = path;
+    this.channel = channel;
+  }
+
+  static OffHeapCoverageStore create(File directory) {
+    try {
+      Path path = Files.createTempFile(directory.toPath(), "cobertura-coverage", ".bin");
+      return new OffHeapCoverageStore(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to create a coverage store in " + directory, e);
+    }
+  }
+
+  /**
+   * Thread-safe.
+   */
+  synchronized void append(ReportCoverage coverage) {
+    packageCount += coverage.packageCount();
+    classCount += coverage.classCount();
+    try {
+      for (Map.Entry<String, FileCoverage> entry : coverage.byFilename().entrySet()) {
+        record.reset();
+        BinaryCoverageFormat.writeRecord(record, entry.getValue().toRecord(entry.getKey()));
+        Long previous = lastSegments.put(entry.getKey(), size);
+        if (writeBuffer.remaining() < HEADER_BYTES + record.size()) {
+          flush();
+        }
+        writeBuffer.putLong(previous == null ? NO_SEGMENT : previous).putInt(record.size());
+        if (writeBuffer.remaining() >= record.size()) {
+          writeBuffer.put(record.bytes(), 0, record.size());
+        } else {
+          flush();
+          write(ByteBuffer.wrap(record.bytes(), 0, record.size()));
+        }
+        size += HEADER_BYTES + record.size();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write to " + path, e);
+    }
+  }
+
+  synchronized Set<String> filenames() {
+    return Collections.unmodifiableSet(lastSegments.keySet());
+  }
+
+  /**
+   * @return the coverage of the file, merged from all its segments
+   */
+  synchronized FileCoverage read(String filename) {
+    FileCoverage coverage = new FileCoverage();
+    try {
+      flush();
+      Long segment = lastSegments.get(filename);
+      long offset = segment == null ? NO_SEGMENT : segment;
+      while (offset != NO_SEGMENT) {
+        ByteBuffer header = readFully(offset, HEADER_BYTES);
+        long previous = header.getLong();
+        ByteBuffer data = readFully(offset + HEADER_BYTES, header.getInt());
+        BinaryCoverageFormat.readRecord(data, coverage);
+        offset = previous;
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + path, e);
+    }
+    return coverage;
+  }
+
+  long packageCount() {
+    return packageCount;
+  }
+
+  long classCount() {
+    return classCount;
+  }
+
+  long sizeInBytes() {
+    return size;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    lastSegments.clear();
+    try {
+      channel.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  private void flush() throws IOException {
+    writeBuffer.flip();
+    write(writeBuffer);
+    writeBuffer.clear();
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, channel.size());
+    }
+  }
+
+  private ByteBuffer readFully(long offset, int length) throws IOException {
+    if (readBuffer.capacity() < length) {
+      readBuffer = ByteBuffer.allocate(Math.max(length, 2 * readBuffer.capacity()));
+    }
+    readBuffer.clear().limit(length);
+    while (readBuffer.hasRemaining()) {
+      if (channel.read(readBuffer, offset + readBuffer.position()) < 0) {
+        throw new IOException("Unexpected end of file at " + (offset + readBuffer.position()));
+      }
+    }
+    readBuffer.flip();
+    return readBuffer;
+  }
+
+  /**
+   * Gives access to the bytes of the record without copying them.
+   */
+  private static final class RecordBuffer extends ByteArrayOutputStream {
+    byte[] bytes() {
+      return buf;
+    }
+  }
+
+}
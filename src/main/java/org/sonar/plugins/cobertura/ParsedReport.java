@@ -0,0 +1,83 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable form of a whole parsed report, which can be shared between modules.
+ */
+final class ParsedReport {
+
+  private final Set<String> sources;
+  private final Map<String, CoverageRecord> recordsByFilename;
+  private final long estimatedBytes;
+
+  private ParsedReport(Set<String> sources, Map<String, CoverageRecord> recordsByFilename) {
+    this.sources = Collections.unmodifiableSet(sources);
+    this.recordsByFilename = Collections.unmodifiableMap(recordsByFilename);
+    long bytes = 0;
+    for (CoverageRecord record : recordsByFilename.values()) {
+      bytes += record.estimatedBytes();
+    }
+    this.estimatedBytes = bytes;
+  }
+
+  static ParsedReport of(ReportCoverage coverage) {
+    Map<String, CoverageRecord> records = new LinkedHashMap<>();
+    for (Map.Entry<String, FileCoverage> entry : coverage.byFilename().entrySet()) {
+      records.put(entry.getKey(), entry.getValue().toRecord(entry.getKey()));
+    }
+    return new ParsedReport(new LinkedHashSet<>(coverage.sources()), records);
+  }
+
+  Set<String> sources() {
+    return sources;
+  }
+
+  Collection<CoverageRecord> records() {
+    return recordsByFilename.values();
+  }
+
+  long estimatedBytes() {
+    return estimatedBytes;
+  }
+
+  /**
+   * Adds the coverage of the files accepted by the filter, which first receives the source roots of the report.
+   */
+  void mergeInto(ReportCoverage coverage, ReportFilter filter) {
+    for (String source : sources) {
+      filter.sourceRoot(source);
+      coverage.addSource(source);
+    }
+    for (CoverageRecord record : recordsByFilename.values()) {
+      if (filter.acceptFile(record.filename())) {
+        coverage.fileCoverage(record.filename()).merge(record);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+
+/**
+ * Process-wide cache of parsed reports, so that modules of one analysis which share a report only parse it once.
+ * <p>
+ * Reports are keyed by canonical path, size and modification time. The cache is bounded by the estimated size of the
+ * reports it holds, least recently used reports being evicted first, and reports are only softly referenced so that
+ * they never cause an out of memory error. A report requested by several sensors at the same time is parsed once.
+ */
+final class ParsedReportCache {
+
+  static final ParsedReportCache INSTANCE = new ParsedReportCache();
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParsedReportCache.class);
+
+  // access-ordered, guarded by this
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ConcurrentMap<Key, FutureTask<ParsedReport>> loading = new ConcurrentHashMap<>();
+  private long totalBytes;
+
+  ParsedReport get(File report, long maxBytes, Function<File, ParsedReport> loader) {
+    Key key = Key.of(report);
+    ParsedReport cached = lookup(key);
+    if (cached != null) {
+      LOGGER.debug("Reusing parsed report {}", report);
+      return cached;
+    }
+    FutureTask<ParsedReport> task = new FutureTask<>(() -> loader.apply(report));
+    FutureTask<ParsedReport> existing = loading.putIfAbsent(key, task);
+    if (existing == null) {
+      existing = task;
+      try {
+        task.run();
+        store(key, getUninterruptibly(task), maxBytes);
+      } finally {
+        loading.remove(key, task);
+      }
+    }
+    return getUninterruptibly(existing);
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    totalBytes = 0;
+  }
+
+  private synchronized ParsedReport lookup(Key key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    ParsedReport report = entry.report.get();
+    if (report == null) {
+      entries.remove(key);
+      totalBytes -= entry.bytes;
+    }
+    return report;
+  }
+
+  private synchronized void store(Key key, ParsedReport report, long maxBytes) {
+    long bytes = report.estimatedBytes();
+    if (bytes > maxBytes) {
+      LOGGER.debug("Parsed report {} is too large to be cached ({} bytes)", key.path, bytes);
+      return;
+    }
+    // previous versions of the same report will not be requested anymore
+    Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key, Entry> entry = it.next();
+      if (entry.getKey().path.equals(key.path) || entry.getValue().report.get() == null) {
+        totalBytes -= entry.getValue().bytes;
+        it.remove();
+      }
+    }
+    it = entries.entrySet().iterator();
+    while (totalBytes + bytes > maxBytes && it.hasNext()) {
+      totalBytes -= it.next().getValue().bytes;
+      it.remove();
+    }
+    entries.put(key, new Entry(report, bytes));
+    totalBytes += bytes;
+  }
+
+  private static ParsedReport getUninterruptibly(FutureTask<ParsedReport> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final SoftReference<ParsedReport> report;
+    private final long bytes;
+
+    private Entry(ParsedReport report, long bytes) {
+      this.report = new SoftReference<>(report);
+      this.bytes = bytes;
+    }
+  }
+
+  private static final class Key {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+
+    private Key(String path, long size, long lastModified) {
+      this.path = path;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    static Key of(File report) {
+      try {
+        return new Key(report.getCanonicalPath(), report.length(), report.lastModified());
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to resolve " + report, e);
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * path.hashCode() + Long.hashCode(size)) + Long.hashCode(lastModified);
+    }
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.sonar.api.config.Configuration;
+
+/**
+ * Engines available to parse XML reports, selected with {@link CoberturaPlugin#COBERTURA_PARSER_PROPERTY}.
+ */
+public enum ParserEngine {
+
+  /**
+   * Standard StAX parsing, which supports any well-formed report.
+   */
+  STAX,
+
+  /**
+   * Byte scanning of the memory-mapped report, falling back to {@link #STAX} on unexpected input.
+   */
+  MMAP;
+
+  static ParserEngine fromConfiguration(Configuration configuration) {
+    return configuration.get(CoberturaPlugin.COBERTURA_PARSER_PROPERTY)
+      .map(ParserEngine::fromValue)
+      .orElse(STAX);
+  }
+
+  private static ParserEngine fromValue(String value) {
+    for (ParserEngine engine : values()) {
+      if (engine.name().equalsIgnoreCase(value.trim())) {
+        return engine;
+      }
+    }
+    throw new IllegalArgumentException("Unknown value '" + value + "' for " + CoberturaPlugin.COBERTURA_PARSER_PROPERTY);
+  }
+
+}
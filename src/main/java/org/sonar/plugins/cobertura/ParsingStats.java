@@ -0,0 +1,221 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sizes, counts and cumulated time of each phase of one sensor execution.
+ * <p>
+ * Reports may be parsed concurrently, so phase times are the sum of the time spent by each thread and can be larger
+ * than the elapsed time. I/O is only measured for streamed reports: memory-mapped reports are read while they are parsed.
+ */
+final class ParsingStats {
+
+  static final String JSON_FILENAME = "cobertura-stats.json";
+
+  private static final int UNRESOLVED_EXAMPLES = 10;
+
+  private final long start = System.nanoTime();
+  private final AtomicLong reports = new AtomicLong();
+  private final AtomicLong reportBytes = new AtomicLong();
+  private final AtomicLong ioNanos = new AtomicLong();
+  private final AtomicLong parseNanos = new AtomicLong();
+  private long indexNanos;
+  private long lookupNanos;
+  private long saveNanos;
+  private long packages;
+  private long classes;
+  private long lines;
+  private long conditions;
+  private long elapsedNanos;
+  private int unresolvedCount;
+  private List<String> unresolvedExamples = Collections.emptyList();
+
+  /**
+   * Thread-safe.
+   */
+  InputStream timed(InputStream input) {
+    return new TimedInputStream(input);
+  }
+
+  /**
+   * Thread-safe.
+   */
+  void parsed(File report, long nanos) {
+    reports.incrementAndGet();
+    reportBytes.addAndGet(report.length());
+    parseNanos.addAndGet(nanos);
+  }
+
+  void counted(ReportCoverage coverage) {
+    packages += coverage.packageCount();
+    classes += coverage.classCount();
+  }
+
+  void counted(OffHeapCoverageStore store) {
+    packages += store.packageCount();
+    classes += store.classCount();
+  }
+
+  void saved(FileCoverage fileCoverage) {
+    lines += fileCoverage.lineCount();
+    conditions += fileCoverage.conditionCount();
+  }
+
+  void savedIn(long nanos) {
+    saveNanos += nanos;
+  }
+
+  void finish(InputFileIndex inputFileIndex) {
+    indexNanos = inputFileIndex.indexNanos();
+    lookupNanos = inputFileIndex.lookupNanos();
+    List<String> unresolved = inputFileIndex.unresolvedFilenames();
+    unresolvedCount = unresolved.size();
+    unresolvedExamples = unresolved.subList(0, Math.min(UNRESOLVED_EXAMPLES, unresolvedCount));
+    elapsedNanos = System.nanoTime() - start;
+  }
+
+  long ioMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(ioNanos.get());
+  }
+
+  /**
+   * Time spent parsing, without I/O and without the resolution of the classes of the reports.
+   */
+  long parsingMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(Math.max(0, parseNanos.get() - ioNanos.get() - lookupNanos));
+  }
+
+  long resolutionMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(indexNanos + lookupNanos);
+  }
+
+  long savingMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(saveNanos);
+  }
+
+  long linesPerSecond() {
+    return elapsedNanos == 0 ? 0 : lines * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  long lines() {
+    return lines;
+  }
+
+  long conditions() {
+    return conditions;
+  }
+
+  int unresolvedCount() {
+    return unresolvedCount;
+  }
+
+  void log(Logger logger) {
+    logger.info("Cobertura: {} report(s), {} bytes, {} packages, {} classes, {} lines, {} conditions",
+      new Object[] {reports.get(), reportBytes.get(), packages, classes, lines, conditions});
+    logger.info("Cobertura: I/O {} ms, parsing {} ms, resolution {} ms, saving {} ms, {} lines/s",
+      new Object[] {ioMillis(), parsingMillis(), resolutionMillis(), savingMillis(), linesPerSecond()});
+    if (unresolvedCount > 0) {
+      logger.info("Cobertura: {} classes not found in the module, e.g. {}", unresolvedCount, unresolvedExamples);
+    }
+  }
+
+  void writeJson(File file) throws IOException {
+    try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+      writer.write("{\n");
+      writer.write("  \"reports\": " + reports.get() + ",\n");
+      writer.write("  \"reportBytes\": " + reportBytes.get() + ",\n");
+      writer.write("  \"packages\": " + packages + ",\n");
+      writer.write("  \"classes\": " + classes + ",\n");
+      writer.write("  \"lines\": " + lines + ",\n");
+      writer.write("  \"conditions\": " + conditions + ",\n");
+      writer.write("  \"ioMs\": " + ioMillis() + ",\n");
+      writer.write("  \"parsingMs\": " + parsingMillis() + ",\n");
+      writer.write("  \"resolutionMs\": " + resolutionMillis() + ",\n");
+      writer.write("  \"savingMs\": " + savingMillis() + ",\n");
+      writer.write("  \"elapsedMs\": " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + ",\n");
+      writer.write("  \"linesPerSecond\": " + linesPerSecond() + ",\n");
+      writer.write("  \"unresolvedClasses\": " + unresolvedCount + ",\n");
+      writer.write("  \"unresolvedExamples\": [");
+      for (int i = 0; i < unresolvedExamples.size(); i++) {
+        writer.write(i == 0 ? "" : ", ");
+        writer.write(jsonString(unresolvedExamples.get(i)));
+      }
+      writer.write("]\n}\n");
+    }
+  }
+
+  static String jsonString(String value) {
+    StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    return json.append('"').toString();
+  }
+
+  private final class TimedInputStream extends FilterInputStream {
+
+    private TimedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      long readStart = System.nanoTime();
+      try {
+        return super.read();
+      } finally {
+        ioNanos.addAndGet(System.nanoTime() - readStart);
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long readStart = System.nanoTime();
+      try {
+        return super.read(b, off, len);
+      } finally {
+        ioNanos.addAndGet(System.nanoTime() - readStart);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads an underlying stream on a background thread, up to {@link #CHUNKS} chunks of {@link #CHUNK_SIZE} bytes ahead
+ * of the consumer, so that producing the bytes (e.g. decompressing them) overlaps with consuming them.
+ */
+class ReadAheadInputStream extends InputStream {
+
+  static final int CHUNK_SIZE = 1024 * 1024;
+  static final int CHUNKS = 8;
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private static final Chunk END = new Chunk(new byte[0], 0);
+
+  private final InputStream source;
+  private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(CHUNKS);
+  private final Thread reader;
+  private volatile IOException failure;
+  private volatile boolean closed;
+  private Chunk current;
+  private int pos;
+
+  ReadAheadInputStream(InputStream source) {
+    this.source = source;
+    this.reader = new Thread(this::readAhead, "cobertura-read-ahead-" + THREAD_COUNT.incrementAndGet());
+    this.reader.setDaemon(true);
+    this.reader.start();
+  }
+
+  private void readAhead() {
+    try {
+      while (!closed) {
+        byte[] bytes = new byte[CHUNK_SIZE];
+        int length = fill(bytes);
+        if (length > 0) {
+          chunks.put(new Chunk(bytes, length));
+        }
+        if (length < CHUNK_SIZE) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      signalEnd();
+    }
+  }
+
+  private void signalEnd() {
+    if (closed) {
+      return;
+    }
+    try {
+      chunks.put(END);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private int fill(byte[] bytes) throws IOException {
+    int length = 0;
+    while (length < bytes.length) {
+      int read = source.read(bytes, length, bytes.length - length);
+      if (read < 0) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    return current.bytes[pos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    int read = Math.min(len, current.length - pos);
+    System.arraycopy(current.bytes, pos, b, off, read);
+    pos += read;
+    return read;
+  }
+
+  private boolean ensureAvailable() throws IOException {
+    if (current == END) {
+      return false;
+    }
+    if (current == null || pos == current.length) {
+      try {
+        current = chunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading ahead");
+      }
+      pos = 0;
+      if (current == END) {
+        if (failure != null) {
+          throw failure;
+        }
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      source.close();
+    }
+  }
+
+  private static final class Chunk {
+    private final byte[] bytes;
+    private final int length;
+
+    private Chunk(byte[] bytes, int length) {
+      this.bytes = bytes;
+      this.length = length;
+    }
+  }
+
+}
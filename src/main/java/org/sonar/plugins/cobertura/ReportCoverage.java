@@ -0,0 +1,93 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Coverage of one or more Cobertura reports, indexed by the <code>filename</code> attribute of their classes.
+ */
+class ReportCoverage {
+
+  private final Map<String, FileCoverage> coverageByFilename = new LinkedHashMap<>();
+  private final Set<String> sources = new LinkedHashSet<>();
+  private long packageCount;
+  private long classCount;
+
+  FileCoverage fileCoverage(String filename) {
+    FileCoverage coverage = coverageByFilename.get(filename);
+    if (coverage == null) {
+      coverage = new FileCoverage();
+      coverageByFilename.put(filename, coverage);
+    }
+    return coverage;
+  }
+
+  /**
+   * @param source the text of a <code>&lt;source&gt;</code> element of the report
+   */
+  void addSource(String source) {
+    sources.add(source);
+  }
+
+  Set<String> sources() {
+    return Collections.unmodifiableSet(sources);
+  }
+
+  /**
+   * Counts a package of the report.
+   */
+  void countPackage() {
+    packageCount++;
+  }
+
+  /**
+   * Counts a class of the report, even if it is skipped.
+   */
+  void countClass() {
+    classCount++;
+  }
+
+  long packageCount() {
+    return packageCount;
+  }
+
+  long classCount() {
+    return classCount;
+  }
+
+  void merge(ReportCoverage other) {
+    packageCount += other.packageCount;
+    classCount += other.classCount;
+    sources.addAll(other.sources);
+    for (Map.Entry<String, FileCoverage> entry : other.coverageByFilename.entrySet()) {
+      fileCoverage(entry.getKey()).merge(entry.getValue());
+    }
+  }
+
+  Map<String, FileCoverage> byFilename() {
+    return Collections.unmodifiableMap(coverageByFilename);
+  }
+
+}
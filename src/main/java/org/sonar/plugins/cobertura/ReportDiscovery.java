@@ -0,0 +1,155 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds the Cobertura reports of a module when none is found at {@link CoberturaPlugin#COBERTURA_REPORT_PATH_PROPERTY},
+ * see {@link CoberturaPlugin#COBERTURA_DISCOVERY_PROPERTY}.
+ * <p>
+ * The base directory of the module is walked down to {@link #MAX_DEPTH} levels for files named
+ * <code>coverage*.xml</code>. Sources, dependencies, version control metadata and nested build modules are not
+ * walked. Candidates are only kept if their first bytes look like a Cobertura report. Results are cached per base
+ * directory for the whole analysis.
+ */
+final class ReportDiscovery {
+
+  static final ReportDiscovery INSTANCE = new ReportDiscovery();
+
+  static final int MAX_DEPTH = 6;
+  static final String REPORT_NAME_PATTERN = "glob:coverage*.xml";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportDiscovery.class);
+
+  private static final Set<String> EXCLUDED_DIRECTORIES = new HashSet<>(Arrays.asList(
+    "src", "node_modules", "bower_components", ".git", ".svn", ".hg", ".gradle", ".idea"));
+  private static final List<String> BUILD_FILES = Arrays.asList("pom.xml", "build.gradle", "build.gradle.kts", "build.xml");
+  private static final int SNIFFED_BYTES = 2048;
+
+  private final ConcurrentMap<Path, List<File>> reportsByBaseDir = new ConcurrentHashMap<>();
+
+  List<File> discover(File baseDir) {
+    return reportsByBaseDir.computeIfAbsent(baseDir.toPath().toAbsolutePath().normalize(), ReportDiscovery::walk);
+  }
+
+  private static List<File> walk(Path baseDir) {
+    long start = System.nanoTime();
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher(REPORT_NAME_PATTERN);
+    List<File> reports = new ArrayList<>();
+    int[] visitedFiles = {0};
+    try {
+      Files.walkFileTree(baseDir, EnumSet.noneOf(FileVisitOption.class), MAX_DEPTH, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (dir.equals(baseDir)) {
+            return FileVisitResult.CONTINUE;
+          }
+          return isExcluded(dir) || isNestedModule(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          visitedFiles[0]++;
+          if (attrs.isRegularFile() && matcher.matches(file.getFileName()) && isCoberturaReport(file)) {
+            reports.add(file.toFile());
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          LOGGER.debug("Unable to visit {}", file, e);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to search Cobertura reports in " + baseDir, e);
+    }
+    Collections.sort(reports);
+    LOGGER.debug("Discovered {} Cobertura report(s) among {} files under {} in {} ms",
+      new Object[] {reports.size(), visitedFiles[0], baseDir, (System.nanoTime() - start) / 1_000_000});
+    return Collections.unmodifiableList(reports);
+  }
+
+  /**
+   * @return true for directories of sources, dependencies and version control or IDE metadata, which never hold reports
+   */
+  static boolean isExcluded(Path dir) {
+    Path name = dir.getFileName();
+    return name != null && EXCLUDED_DIRECTORIES.contains(name.toString());
+  }
+
+  /**
+   * Nested modules are walked from their own base directory.
+   */
+  private static boolean isNestedModule(Path dir) {
+    for (String buildFile : BUILD_FILES) {
+      if (Files.isRegularFile(dir.resolve(buildFile))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Clover reports also have a <code>&lt;coverage&gt;</code> root element, but neither a Cobertura DTD nor rate attributes.
+   */
+  static boolean isCoberturaReport(Path file) {
+    byte[] head = new byte[SNIFFED_BYTES];
+    int length = 0;
+    try (InputStream input = Files.newInputStream(file)) {
+      int read;
+      while (length < head.length && (read = input.read(head, length, head.length - length)) > 0) {
+        length += read;
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Unable to read {}", file, e);
+      return false;
+    }
+    String start = new String(head, 0, length, StandardCharsets.ISO_8859_1);
+    int root = start.indexOf("<coverage");
+    return root >= 0 && (start.contains("cobertura") || start.indexOf("line-rate", root) >= 0);
+  }
+
+}
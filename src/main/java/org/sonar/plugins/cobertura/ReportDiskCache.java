@@ -0,0 +1,249 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.scan.filesystem.PathResolver;
+import org.sonar.plugins.cobertura.BinaryCoverageFormat.ReportStamp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the reports converted to the {@link BinaryCoverageFormat}, kept on disk between analyses so that an
+ * unchanged report is not parsed again, e.g. when an analysis is re-run on the same build.
+ * <p>
+ * Entries are named after the SHA-256 of the plugin version and of the content of the report. Reading an entry
+ * refreshes its modification time, and entries which have not been read for {@link #MAX_AGE_DAYS} days are deleted,
+ * as well as the least recently read ones beyond the size bound of the cache. Keys are only computed again when the
+ * size or the modification time of a report changes, so that modules sharing a report do not hash it each time.
+ */
+final class ReportDiskCache {
+
+  static final String ENTRY_SUFFIX = ".ccov";
+  static final long MAX_AGE_DAYS = 7;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportDiskCache.class);
+
+  private static final long MEGABYTE = 1024L * 1024L;
+  private static final String PLUGIN_VERSION = pluginVersion();
+  private static final ReportDiskCache DISABLED = new ReportDiskCache(null, 0);
+  // canonical path of a report -> its key
+  private static final ConcurrentMap<String, StampedKey> KEYS = new ConcurrentHashMap<>();
+
+  private final File directory;
+  private final long maxBytes;
+
+  private ReportDiskCache(File directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return the cache configured by {@link CoberturaPlugin#COBERTURA_DISK_CACHE_SIZE_PROPERTY}, which does nothing when
+   * its size is 0
+   */
+  static ReportDiskCache from(Configuration configuration, File baseDir, PathResolver pathResolver) {
+    long maxBytes = configuration.getLong(CoberturaPlugin.COBERTURA_DISK_CACHE_SIZE_PROPERTY).orElse(0L) * MEGABYTE;
+    if (maxBytes <= 0) {
+      return DISABLED;
+    }
+    String path = configuration.get(CoberturaPlugin.COBERTURA_DISK_CACHE_PATH_PROPERTY).orElse("").trim();
+    File directory = path.isEmpty() ? defaultDirectory(configuration) : pathResolver.relativeFile(baseDir, path);
+    return new ReportDiskCache(directory, maxBytes);
+  }
+
+  /**
+   * The working directory of the analysis is emptied when each analysis starts, so entries are kept in the
+   * SonarQube user home by default.
+   */
+  private static File defaultDirectory(Configuration configuration) {
+    String userHome = configuration.get("sonar.userHome").orElse(null);
+    File sonarHome = userHome == null ? new File(System.getProperty("user.home"), ".sonar") : new File(userHome);
+    return new File(sonarHome, "cobertura-cache");
+  }
+
+  /**
+   * Replaces each XML report with its cache entry, which is converted from the report first if it is not cached yet.
+   * Binary reports, streams, and reports which cannot be cached, are read as usual.
+   */
+  List<File> cached(List<File> reports) {
+    if (directory == null) {
+      return reports;
+    }
+    List<File> files = new ArrayList<>();
+    for (File report : reports) {
+      try {
+        if (ReportStream.isStream(report) || ReportFormat.detect(report) == ReportFormat.BINARY) {
+          files.add(report);
+          continue;
+        }
+        files.add(entry(report));
+      } catch (IOException e) {
+        LOGGER.warn("Unable to cache " + report, e);
+        files.add(report);
+      }
+    }
+    return files;
+  }
+
+  private File entry(File report) throws IOException {
+    File entry = new File(directory, key(report) + ENTRY_SUFFIX);
+    if (entry.isFile()) {
+      if (!entry.setLastModified(System.currentTimeMillis())) {
+        LOGGER.debug("Unable to refresh {} in the Cobertura disk cache", entry);
+      }
+      LOGGER.info("Using the cached index {} of {}", entry.getName(), report);
+      return entry;
+    }
+    LOGGER.info("{} is not in the Cobertura disk cache, converting it", report);
+    long start = System.nanoTime();
+    Files.createDirectories(directory.toPath());
+    Path temp = Files.createTempFile(directory.toPath(), ".cobertura", ".tmp");
+    try {
+      CoverageConverter.convert(new File[] {report}, temp.toFile());
+      try {
+        Files.move(temp, entry.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    LOGGER.info("Converted {} to the cached index {} in {} ms",
+      new Object[] {report, entry.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+    return entry;
+  }
+
+  static String key(File report) throws IOException {
+    String path = report.getCanonicalPath();
+    ReportStamp stamp = ReportStamp.of(report.toPath());
+    StampedKey cached = KEYS.get(path);
+    if (cached != null && cached.stamp.equals(stamp)) {
+      return cached.key;
+    }
+    String key = digest(report);
+    KEYS.put(path, new StampedKey(stamp, key));
+    return key;
+  }
+
+  private static String digest(File report) throws IOException {
+    MessageDigest digest = sha256();
+    digest.update(PLUGIN_VERSION.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    byte[] buffer = new byte[ReportFormat.BUFFER_SIZE];
+    try (InputStream input = Files.newInputStream(report.toPath())) {
+      int read;
+      while ((read = input.read(buffer)) >= 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Deletes the entries which are too old, then the least recently used ones until the cache fits in its size bound.
+   * Entries may be used by concurrent analyses, so failures are ignored, and their modification times are read once
+   * before sorting, as a concurrent read may refresh them meanwhile.
+   */
+  void evict() {
+    File[] files = directory == null ? null : directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+    if (files == null) {
+      return;
+    }
+    List<CachedEntry> entries = new ArrayList<>();
+    for (File file : files) {
+      entries.add(new CachedEntry(file));
+    }
+    entries.sort(Comparator.comparingLong((CachedEntry entry) -> entry.lastModified).reversed());
+    long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+    long size = 0;
+    for (CachedEntry entry : entries) {
+      size += entry.length;
+      if ((size > maxBytes || entry.lastModified < oldest) && !entry.file.delete()) {
+        LOGGER.debug("Unable to evict {} from the Cobertura disk cache", entry.file);
+      }
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class CachedEntry {
+    private final File file;
+    private final long lastModified;
+    private final long length;
+
+    private CachedEntry(File file) {
+      this.file = file;
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+    }
+  }
+
+  private static final class StampedKey {
+    private final ReportStamp stamp;
+    private final String key;
+
+    private StampedKey(ReportStamp stamp, String key) {
+      this.stamp = stamp;
+      this.key = key;
+    }
+  }
+
+  private static String pluginVersion() {
+    Properties properties = new Properties();
+    try (InputStream input = ReportDiskCache.class.getResourceAsStream("plugin.properties")) {
+      if (input != null) {
+        properties.load(input);
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Unable to read the version of the plugin", e);
+    }
+    return properties.getProperty("version", "unknown");
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+/**
+ * Lets parser engines skip the subtrees of <code>&lt;class&gt;</code> elements whose coverage would not be saved
+ * anyway, without reading their lines.
+ */
+interface ReportFilter {
+
+  ReportFilter ALL = new ReportFilter() {
+    @Override
+    public boolean acceptFile(String filename) {
+      return true;
+    }
+  };
+
+  /**
+   * @param filename the <code>filename</code> attribute of a <code>&lt;class&gt;</code> element
+   */
+  boolean acceptFile(String filename);
+
+  /**
+   * Called for each <code>&lt;source&gt;</code> element of a report, before its packages.
+   *
+   * @param source the trimmed text of the element, never empty
+   */
+  default void sourceRoot(String source) {
+    // source roots are ignored by default
+  }
+
+}
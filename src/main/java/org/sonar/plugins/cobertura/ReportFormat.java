@@ -0,0 +1,104 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Formats of report files, recognized by their first bytes rather than by their extension.
+ */
+enum ReportFormat {
+
+  XML,
+  GZIP,
+  ZSTD,
+  /**
+   * See {@link BinaryCoverageFormat}, which cannot be read as a stream.
+   */
+  BINARY;
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int MAGIC_LENGTH = 4;
+
+  static ReportFormat detect(File report) throws IOException {
+    try (BufferedInputStream input = new BufferedInputStream(new FileInputStream(report), MAGIC_LENGTH)) {
+      return detect(input);
+    }
+  }
+
+  /**
+   * Leaves the stream at its initial position.
+   */
+  static ReportFormat detect(BufferedInputStream input) throws IOException {
+    input.mark(MAGIC_LENGTH);
+    int[] magic = new int[MAGIC_LENGTH];
+    for (int i = 0; i < MAGIC_LENGTH; i++) {
+      magic[i] = input.read();
+    }
+    input.reset();
+    if (magic[0] == 0x1f && magic[1] == 0x8b) {
+      return GZIP;
+    }
+    if (magic[0] == 0x28 && magic[1] == 0xb5 && magic[2] == 0x2f && magic[3] == 0xfd) {
+      return ZSTD;
+    }
+    if (magic[0] == BinaryCoverageFormat.MAGIC[0] && magic[1] == BinaryCoverageFormat.MAGIC[1]
+      && magic[2] == BinaryCoverageFormat.MAGIC[2] && magic[3] == BinaryCoverageFormat.MAGIC[3]) {
+      return BINARY;
+    }
+    return XML;
+  }
+
+  /**
+   * Opens the report as a stream of XML. Compressed reports are decompressed on a separate thread,
+   * ahead of the parser.
+   */
+  static InputStream open(File report) throws IOException {
+    return open(ReportStream.open(report));
+  }
+
+  static InputStream open(InputStream raw) throws IOException {
+    BufferedInputStream input = new BufferedInputStream(raw, BUFFER_SIZE);
+    try {
+      switch (detect(input)) {
+        case GZIP:
+          return new ReadAheadInputStream(new GZIPInputStream(input, BUFFER_SIZE));
+        case ZSTD:
+          return new ReadAheadInputStream(new ZstdInputStream(input));
+        case BINARY:
+          throw new IllegalStateException("Binary coverage reports must be memory-mapped");
+        default:
+          return input;
+      }
+    } catch (IOException | RuntimeException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+}
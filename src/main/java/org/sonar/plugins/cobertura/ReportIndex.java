@@ -0,0 +1,296 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.cobertura.BinaryCoverageFormat.ReportStamp;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sidecar index of an XML report, named after the report with the {@link #INDEX_SUFFIX} suffix, which locates the
+ * <code>&lt;class&gt;</code> elements of the report so that a module reads only the classes it contains:
+ * <pre>
+ * "CIDX" version reportSize reportLastModifiedNanos charset
+ * sourceCount { source }*
+ * packageCount
+ * classCount { filename offset length }*
+ * </pre>
+ * The index is only used while the size and modification time of the report are those it records, see
+ * {@link ReportStamp}. Elements are read
+ * with positional reads of the report, and parsed by the {@link MappedReportParser}.
+ * <p>
+ * Indexes are built by the sensor when {@link CoberturaPlugin#COBERTURA_REPORT_INDEX_PROPERTY} is set, or with:
+ * <pre>
+ * java -cp &lt;plugin and its dependencies&gt; org.sonar.plugins.cobertura.ReportIndex coverage.xml...
+ * </pre>
+ */
+public final class ReportIndex {
+
+  static final String INDEX_SUFFIX = ".idx";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportIndex.class);
+
+  private static final byte[] MAGIC = {'C', 'I', 'D', 'X'};
+  private static final int VERSION = 2;
+
+  private final Charset charset;
+  private final List<String> sources;
+  private final int packageCount;
+  private final String[] filenames;
+  private final long[] offsets;
+  private final int[] lengths;
+
+  private ReportIndex(Charset charset, List<String> sources, int packageCount, String[] filenames, long[] offsets, int[] lengths) {
+    this.charset = charset;
+    this.sources = sources;
+    this.packageCount = packageCount;
+    this.filenames = filenames;
+    this.offsets = offsets;
+    this.lengths = lengths;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: ReportIndex <report>...");
+      System.exit(1);
+    }
+    for (String report : args) {
+      build(new File(report));
+    }
+  }
+
+  static File indexFile(File report) {
+    return new File(report.getPath() + INDEX_SUFFIX);
+  }
+
+  /**
+   * Builds the index of the report, unless it is up to date.
+   *
+   * @return false if the report cannot be indexed, e.g. because it is compressed, a {@link ReportStream}, or outside of
+   * the subset of XML supported by the {@link MappedReportParser}
+   */
+  static boolean ensure(File report) {
+    try {
+      if (ReportStream.isStream(report) || ReportFormat.detect(report) != ReportFormat.XML) {
+        return false;
+      }
+      if (!isReady(report)) {
+        build(report);
+      }
+      return true;
+    } catch (IOException | MappedReportParser.UnsupportedContentException e) {
+      LOGGER.info("Unable to index {} ({})", report, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Writes the index next to the report, unless the report changes meanwhile.
+   */
+  static void build(File report) throws IOException {
+    ReportStamp stamp = ReportStamp.of(report.toPath());
+    List<String> sources = new ArrayList<>();
+    long[] lastPackage = {-1};
+    int[] packageCount = {0};
+    List<Location> classes = new ArrayList<>();
+    Charset charset;
+    try (FileChannel channel = FileChannel.open(report.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new MappedReportParser.UnsupportedContentException("report is larger than 2 GB");
+      }
+      ReportFilter locateAll = new ReportFilter() {
+        @Override
+        public boolean acceptFile(String filename) {
+          return false;
+        }
+
+        @Override
+        public void sourceRoot(String source) {
+          sources.add(source);
+        }
+      };
+      charset = MappedReportParser.locate(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), locateAll,
+        (packageIndex, filename, start, end) -> {
+          if (packageIndex != lastPackage[0]) {
+            lastPackage[0] = packageIndex;
+            packageCount[0]++;
+          }
+          classes.add(new Location(filename, start, end - start));
+        });
+    }
+    if (!ReportStamp.of(report.toPath()).equals(stamp)) {
+      throw new IOException("Report changed while being indexed");
+    }
+    Path index = indexFile(report).toPath();
+    Path temp = index.resolveSibling("." + index.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), ReportFormat.BUFFER_SIZE))) {
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        stamp.writeTo(out);
+        out.writeUTF(charset.name());
+        out.writeInt(sources.size());
+        for (String source : sources) {
+          out.writeUTF(source);
+        }
+        out.writeInt(packageCount[0]);
+        out.writeInt(classes.size());
+        for (Location location : classes) {
+          out.writeUTF(location.filename);
+          out.writeLong(location.offset);
+          out.writeInt(location.length);
+        }
+      }
+      try {
+        Files.move(temp, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    LOGGER.info("Indexed {} classes of {}", classes.size(), report);
+  }
+
+  /**
+   * @return whether the report has an index which matches it, without reading the index
+   */
+  static boolean isReady(File report) {
+    File indexFile = indexFile(report);
+    if (!indexFile.isFile()) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+      return matches(in, report);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return the index of the report, or null if there is none or if it does not match the report
+   */
+  @CheckForNull
+  static ReportIndex ready(File report) {
+    File indexFile = indexFile(report);
+    if (!indexFile.isFile()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), ReportFormat.BUFFER_SIZE))) {
+      if (!matches(in, report)) {
+        return null;
+      }
+      Charset charset = Charset.forName(in.readUTF());
+      List<String> sources = new ArrayList<>();
+      for (int i = in.readInt(); i > 0; i--) {
+        sources.add(in.readUTF());
+      }
+      int packageCount = in.readInt();
+      int classCount = in.readInt();
+      String[] filenames = new String[classCount];
+      long[] offsets = new long[classCount];
+      int[] lengths = new int[classCount];
+      for (int i = 0; i < classCount; i++) {
+        filenames[i] = in.readUTF();
+        offsets[i] = in.readLong();
+        lengths[i] = in.readInt();
+      }
+      return new ReportIndex(charset, sources, packageCount, filenames, offsets, lengths);
+    } catch (IOException | IllegalArgumentException e) {
+      LOGGER.debug("Ignoring the unreadable index " + indexFile, e);
+      return null;
+    }
+  }
+
+  private static boolean matches(DataInputStream in, File report) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    return Arrays.equals(magic, MAGIC) && in.readInt() == VERSION
+      && ReportStamp.readFrom(in).equals(ReportStamp.of(report.toPath()));
+  }
+
+  /**
+   * Reads the classes of the report which are accepted by the filter, and only them.
+   */
+  ReportCoverage read(File report, ReportFilter filter) throws IOException {
+    ReportCoverage coverage = new ReportCoverage();
+    for (String source : sources) {
+      coverage.addSource(source);
+      filter.sourceRoot(source);
+    }
+    try (FileChannel channel = FileChannel.open(report.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(ReportFormat.BUFFER_SIZE);
+      for (int i = 0; i < packageCount; i++) {
+        coverage.countPackage();
+      }
+      for (int i = 0; i < filenames.length; i++) {
+        if (!filter.acceptFile(filenames[i])) {
+          coverage.countClass();
+          continue;
+        }
+        if (buffer.capacity() < lengths[i]) {
+          buffer = ByteBuffer.allocate(lengths[i]);
+        }
+        buffer.clear().limit(lengths[i]);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, offsets[i] + buffer.position()) < 0) {
+            throw new IOException("Unexpected end of " + report);
+          }
+        }
+        buffer.flip();
+        coverage.merge(MappedReportParser.parse(buffer, charset, ReportFilter.ALL));
+      }
+    }
+    return coverage;
+  }
+
+  private static final class Location {
+    private final String filename;
+    private final int offset;
+    private final int length;
+
+    private Location(String filename, int offset, int length) {
+      this.filename = filename;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+}
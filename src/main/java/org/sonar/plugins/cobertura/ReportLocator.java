@@ -0,0 +1,164 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.scan.filesystem.PathResolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Resolves the values of {@link CoberturaPlugin#COBERTURA_REPORT_PATH_PROPERTY} to report files. Each value is either
+ * a path or a glob pattern (e.g. <code>target/shards/&#42;&#42;/coverage.xml</code>), absolute or relative to the module base directory.
+ * Paths may also name a pipe, or be {@link ReportStream#STDIN_PATH} for the standard input, while patterns only match regular files.
+ */
+final class ReportLocator {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportLocator.class);
+
+  private static final String GLOB_CHARACTERS = "*?[{";
+
+  private ReportLocator() {
+  }
+
+  /**
+   * @param standardInput supplies the standard input of the analysis, for {@link ReportStream#STDIN_PATH}
+   */
+  static List<File> locate(File baseDir, PathResolver pathResolver, String[] paths, Supplier<InputStream> standardInput) {
+    Set<File> reports = new LinkedHashSet<>();
+    for (String path : paths) {
+      String trimmed = path.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      if (ReportStream.STDIN_PATH.equals(trimmed)) {
+        reports.add(ReportStream.standardInput(standardInput));
+        continue;
+      }
+      if (isGlob(trimmed)) {
+        reports.addAll(glob(baseDir, pathResolver, trimmed));
+      } else {
+        File report = pathResolver.relativeFile(baseDir, trimmed);
+        if (isReadableFile(report)) {
+          reports.add(report);
+        } else {
+          LOGGER.warn("Cobertura report not found at {}", report);
+        }
+      }
+    }
+    return new ArrayList<>(reports);
+  }
+
+  private static boolean isGlob(String path) {
+    for (int i = 0; i < GLOB_CHARACTERS.length(); i++) {
+      if (path.indexOf(GLOB_CHARACTERS.charAt(i)) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isReadableFile(File file) {
+    return (file.isFile() || ReportStream.isStream(file)) && file.canRead();
+  }
+
+  /**
+   * The directory tree is only walked from the longest leading part of the pattern which has no glob character.
+   */
+  private static List<File> glob(File baseDir, PathResolver pathResolver, String pattern) {
+    String[] segments = pattern.replace('\\', '/').split("/", -1);
+    int firstGlobSegment = 0;
+    while (!isGlob(segments[firstGlobSegment])) {
+      firstGlobSegment++;
+    }
+    String directory = join(segments, 0, firstGlobSegment);
+    if (directory.isEmpty() && pattern.startsWith("/")) {
+      directory = "/";
+    }
+    String relativePattern = join(segments, firstGlobSegment, segments.length);
+    File root = directory.isEmpty() ? baseDir : pathResolver.relativeFile(baseDir, directory);
+    if (!root.isDirectory()) {
+      LOGGER.warn("No Cobertura report matches {}", pattern);
+      return Collections.emptyList();
+    }
+
+    int maxDepth = relativePattern.contains("**") ? Integer.MAX_VALUE : (segments.length - firstGlobSegment);
+    List<File> matches = walk(root.toPath(), FileSystems.getDefault().getPathMatcher("glob:" + relativePattern), maxDepth);
+    if (matches.isEmpty()) {
+      LOGGER.warn("No Cobertura report matches {}", pattern);
+    }
+    Collections.sort(matches);
+    return matches;
+  }
+
+  private static List<File> walk(Path root, PathMatcher matcher, int maxDepth) {
+    List<File> matches = new ArrayList<>();
+    try {
+      Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (attrs.isRegularFile() && matcher.matches(root.relativize(file)) && Files.isReadable(file)) {
+            matches.add(file.toFile());
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          LOGGER.debug("Unable to visit {}", file, e);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to search Cobertura reports in " + root, e);
+    }
+    return matches;
+  }
+
+  private static String join(String[] segments, int from, int to) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = from; i < to; i++) {
+      if (i > from) {
+        sb.append('/');
+      }
+      sb.append(segments[i]);
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/**
+ * Reports which can only be read once, from start to end, possibly while they are still being written: named pipes,
+ * and the standard input given as {@link #STDIN_PATH}. They are parsed in a single pass with StAX, and are never
+ * cached nor indexed.
+ */
+final class ReportStream {
+
+  static final String STDIN_PATH = "-";
+
+  private ReportStream() {
+  }
+
+  /**
+   * @param input supplies the standard input of the analysis when the report is opened
+   */
+  static File standardInput(Supplier<InputStream> input) {
+    return new StandardInput(input);
+  }
+
+  static boolean isStream(File report) {
+    return report instanceof StandardInput || (report.exists() && !report.isFile() && !report.isDirectory());
+  }
+
+  /**
+   * Opens the raw bytes of the report. Streams are drained by a {@link ReadAheadInputStream}, so that the producer is
+   * not blocked while the parser is busy, through an interruptible channel so that closing the stream does not wait
+   * for a stalled producer.
+   */
+  static InputStream open(File report) throws IOException {
+    if (!isStream(report)) {
+      return new FileInputStream(report);
+    }
+    ReadableByteChannel channel = report instanceof StandardInput
+      ? Channels.newChannel(((StandardInput) report).input.get())
+      : FileChannel.open(report.toPath(), StandardOpenOption.READ);
+    return new ReadAheadInputStream(Channels.newInputStream(channel));
+  }
+
+  private static final class StandardInput extends File {
+
+    private final transient Supplier<InputStream> input;
+
+    private StandardInput(Supplier<InputStream> input) {
+      super(STDIN_PATH);
+      this.input = input;
+    }
+
+    @Override
+    public String toString() {
+      return "the standard input";
+    }
+
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.measure.Metric;
+import org.sonar.api.batch.sensor.SensorContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Totals of reports, read from the attributes of their <code>&lt;coverage&gt;</code> and <code>&lt;package&gt;</code>
+ * start tags only: the bytes of the report are scanned for these two tags, and everything else, including the
+ * <code>&lt;classes&gt;</code> subtrees, is skipped without being parsed.
+ * <p>
+ * The totals of several reports are summed, which is only accurate when they cover distinct code, e.g. one report per
+ * module. Rates alone cannot be summed, so reports without line counts (Cobertura 1.x) are only summarized when alone.
+ */
+final class ReportSummary {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReportSummary.class);
+
+  private static final byte[] COVERAGE = ascii("coverage");
+  private static final byte[] PACKAGE = ascii("package");
+  private static final byte[] END_OF_COMMENT = ascii("-->");
+  private static final int MAX_NAME_LENGTH = 9;
+
+  private int reports;
+  private int uncountedReports;
+  private long packages;
+  private long linesCovered;
+  private long linesValid;
+  private long branchesCovered;
+  private long branchesValid;
+  // rates of the last report without line counts
+  private double lineRate = Double.NaN;
+  private double branchRate = Double.NaN;
+
+  static ReportSummary read(List<File> reports) {
+    ReportSummary summary = new ReportSummary();
+    for (File report : reports) {
+      try {
+        if (!ReportStream.isStream(report) && ReportFormat.detect(report) == ReportFormat.BINARY) {
+          LOGGER.warn("Binary report {} has no totals, it is ignored in summary mode", report);
+          continue;
+        }
+        try (InputStream input = ReportFormat.open(report)) {
+          summary.scan(new ByteScanner(input));
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read " + report, e);
+      }
+    }
+    return summary;
+  }
+
+  private void scan(ByteScanner scanner) throws IOException {
+    reports++;
+    byte[] name = new byte[MAX_NAME_LENGTH];
+    int b;
+    while (scanner.skipPast('<')) {
+      int length = 0;
+      while ((b = scanner.read()) >= 0 && length < MAX_NAME_LENGTH && !isEndOfName(b)) {
+        name[length++] = (byte) b;
+        if (length == 3 && name[0] == '!' && name[1] == '-' && name[2] == '-') {
+          scanner.skipTo(END_OF_COMMENT);
+          break;
+        }
+      }
+      if (isEndOfName(b)) {
+        if (nameEquals(name, length, COVERAGE)) {
+          coverage(attributes(scanner, b));
+        } else if (nameEquals(name, length, PACKAGE)) {
+          packageTotals(attributes(scanner, b));
+        }
+      }
+    }
+  }
+
+  private void coverage(Map<String, String> attributes) {
+    long valid = parseCount(attributes.get("lines-valid"));
+    long covered = parseCount(attributes.get("lines-covered"));
+    if (valid < 0 || covered < 0) {
+      uncountedReports++;
+      lineRate = parseRate(attributes.get("line-rate"));
+      branchRate = parseRate(attributes.get("branch-rate"));
+      return;
+    }
+    linesValid += valid;
+    linesCovered += covered;
+    branchesValid += Math.max(0, parseCount(attributes.get("branches-valid")));
+    branchesCovered += Math.max(0, parseCount(attributes.get("branches-covered")));
+  }
+
+  private void packageTotals(Map<String, String> attributes) {
+    packages++;
+    LOGGER.debug("Cobertura summary of package {}: line rate {}, branch rate {}",
+      new Object[] {attributes.get("name"), attributes.get("line-rate"), attributes.get("branch-rate")});
+  }
+
+  /**
+   * Saves the totals on the module of the context, which must be the root module, with the {@link CoberturaMetrics}.
+   */
+  void save(SensorContext context) {
+    if (uncountedReports == reports && reports == 1) {
+      LOGGER.info("Cobertura summary: {} packages, line rate {}, branch rate {}", new Object[] {packages, lineRate, branchRate});
+      saveRate(context, CoberturaMetrics.SUMMARY_LINE_COVERAGE, lineRate);
+      saveRate(context, CoberturaMetrics.SUMMARY_BRANCH_COVERAGE, branchRate);
+      return;
+    }
+    if (uncountedReports > 0) {
+      LOGGER.warn("Cobertura summary: {} report(s) without line counts are ignored", uncountedReports);
+    }
+    LOGGER.info("Cobertura summary: {} report(s), {} packages, {}/{} lines covered, {}/{} branches covered",
+      new Object[] {reports - uncountedReports, packages, linesCovered, linesValid, branchesCovered, branchesValid});
+    if (linesValid > 0) {
+      saveRate(context, CoberturaMetrics.SUMMARY_LINE_COVERAGE, (double) linesCovered / linesValid);
+      save(context, CoberturaMetrics.SUMMARY_LINES_TO_COVER, (int) Math.min(Integer.MAX_VALUE, linesValid));
+      save(context, CoberturaMetrics.SUMMARY_UNCOVERED_LINES, (int) Math.min(Integer.MAX_VALUE, linesValid - linesCovered));
+    }
+    if (branchesValid > 0) {
+      saveRate(context, CoberturaMetrics.SUMMARY_BRANCH_COVERAGE, (double) branchesCovered / branchesValid);
+    }
+  }
+
+  long packages() {
+    return packages;
+  }
+
+  long linesCovered() {
+    return linesCovered;
+  }
+
+  long linesValid() {
+    return linesValid;
+  }
+
+  private static void saveRate(SensorContext context, Metric<Double> metric, double rate) {
+    if (!Double.isNaN(rate)) {
+      save(context, metric, 100.0 * rate);
+    }
+  }
+
+  private static <G extends Serializable> void save(SensorContext context, Metric<G> metric, G value) {
+    context.<G>newMeasure()
+      .on(context.module())
+      .forMetric(metric)
+      .withValue(value)
+      .save();
+  }
+
+  /**
+   * Reads the attributes of a start tag, up to its end.
+   *
+   * @param b the byte which follows the name of the tag
+   */
+  private static Map<String, String> attributes(ByteScanner scanner, int b) throws IOException {
+    Map<String, String> attributes = new HashMap<>();
+    ByteArrayOutputStream name = new ByteArrayOutputStream();
+    ByteArrayOutputStream value = new ByteArrayOutputStream();
+    int current = b;
+    while (current >= 0 && current != '>') {
+      if (current == '=') {
+        int quote = scanner.read();
+        while (quote == ' ' || quote == '\t' || quote == '\r' || quote == '\n') {
+          quote = scanner.read();
+        }
+        value.reset();
+        while ((current = scanner.read()) >= 0 && current != quote) {
+          value.write(current);
+        }
+        attributes.put(new String(name.toByteArray(), StandardCharsets.UTF_8), new String(value.toByteArray(), StandardCharsets.UTF_8));
+        name.reset();
+      } else if (!isWhitespace(current) && current != '/') {
+        name.write(current);
+      }
+      current = scanner.read();
+    }
+    return attributes;
+  }
+
+  private static long parseCount(String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(value.replace(",", "").trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static double parseRate(String value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static boolean isEndOfName(int b) {
+    return isWhitespace(b) || b == '>' || b == '/' || b == '=';
+  }
+
+  private static boolean isWhitespace(int b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  private static boolean nameEquals(byte[] name, int length, byte[] expected) {
+    if (length != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name[i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Unsynchronized buffered reading of the report, one byte at a time.
+   */
+  private static final class ByteScanner {
+    private final InputStream input;
+    private final byte[] buffer = new byte[ReportFormat.BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private ByteScanner(InputStream input) {
+      this.input = input;
+    }
+
+    int read() throws IOException {
+      if (position == limit) {
+        limit = input.read(buffer);
+        position = 0;
+        if (limit <= 0) {
+          limit = 0;
+          return -1;
+        }
+      }
+      return buffer[position++] & 0xff;
+    }
+
+    /**
+     * @return false at the end of the input
+     */
+    boolean skipPast(int b) throws IOException {
+      while (true) {
+        for (int i = position; i < limit; i++) {
+          if (buffer[i] == b) {
+            position = i + 1;
+            return true;
+          }
+        }
+        position = limit;
+        if (read() < 0) {
+          return false;
+        }
+        position--;
+      }
+    }
+
+    void skipTo(byte[] end) throws IOException {
+      int matched = 0;
+      int b;
+      while (matched < end.length && (b = read()) >= 0) {
+        if (b == end[matched]) {
+          matched++;
+        } else {
+          matched = b == end[0] ? 1 : 0;
+        }
+      }
+    }
+  }
+
+}
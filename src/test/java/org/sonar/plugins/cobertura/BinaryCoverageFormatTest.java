@@ -0,0 +1,197 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.sensor.coverage.NewCoverage;
+import org.sonar.plugins.cobertura.BinaryCoverageFormat.ReportStamp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class BinaryCoverageFormatTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void readsOnlyAcceptedFiles() throws Exception {
+    ReportCoverage coverage = new ReportCoverage();
+    coverage.fileCoverage("org/example/Foo.java").lineHits(2, 3);
+    coverage.fileCoverage("org/example/Foo.java").lineHits(1000, Integer.MAX_VALUE - 1);
+    coverage.fileCoverage("org/example/Foo.java").conditions(2, 4, 3);
+    coverage.fileCoverage("org/other/Bar.java").lineHits(7, 0);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BinaryCoverageFormat.write(ParsedReport.of(coverage), output);
+
+    ReportCoverage read = BinaryCoverageFormat.read(ByteBuffer.wrap(output.toByteArray()), filename -> filename.startsWith("org/example/"));
+
+    assertThat(read.byFilename().keySet()).containsOnly("org/example/Foo.java");
+    NewCoverage newCoverage = mock(NewCoverage.class);
+    read.byFilename().get("org/example/Foo.java").save(newCoverage);
+    verify(newCoverage).lineHits(2, 3);
+    verify(newCoverage).lineHits(1000, Integer.MAX_VALUE - 1);
+    verify(newCoverage).conditions(2, 4, 3);
+    verify(newCoverage).save();
+    verifyNoMoreInteractions(newCoverage);
+  }
+
+  @Test
+  public void handsOverSourceRootsBeforeFiles() throws Exception {
+    ReportCoverage coverage = new ReportCoverage();
+    coverage.addSource("/build/src/main/java");
+    coverage.addSource("/build/generated");
+    coverage.fileCoverage("org/example/Foo.java").lineHits(2, 3);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BinaryCoverageFormat.write(ParsedReport.of(coverage), output);
+    List<String> roots = new ArrayList<>();
+    ReportFilter filter = new ReportFilter() {
+      @Override
+      public boolean acceptFile(String filename) {
+        return !roots.isEmpty();
+      }
+
+      @Override
+      public void sourceRoot(String source) {
+        roots.add(source);
+      }
+    };
+
+    ReportCoverage read = BinaryCoverageFormat.read(ByteBuffer.wrap(output.toByteArray()), filter);
+
+    assertThat(roots).containsExactly("/build/src/main/java", "/build/generated");
+    assertThat(read.sources()).containsOnly("/build/src/main/java", "/build/generated");
+    assertThat(read.byFilename().keySet()).containsOnly("org/example/Foo.java");
+  }
+
+  @Test
+  public void streamsRecordsAndMergesFilesIndexedSeveralTimes() throws Exception {
+    File directory = temp.newFolder();
+    File binaryReport = new File(directory, "coverage.ccov");
+    ReportCoverage firstPackage = new ReportCoverage();
+    firstPackage.fileCoverage("org/example/Foo.java").lineHits(2, 3);
+    firstPackage.fileCoverage("org/example/Foo.java").conditions(2, 4, 1);
+    ReportCoverage secondPackage = new ReportCoverage();
+    secondPackage.fileCoverage("org/example/Foo.java").lineHits(2, 1);
+    secondPackage.fileCoverage("org/example/Foo.java").conditions(2, 4, 3);
+    secondPackage.fileCoverage("org/other/Bar.java").lineHits(7, 0);
+
+    try (BinaryCoverageFormat.Writer writer = new BinaryCoverageFormat.Writer(binaryReport, ReportStamp.NONE)) {
+      writer.addSource("/build/src/main/java");
+      writer.add(firstPackage.fileCoverage("org/example/Foo.java").toRecord("org/example/Foo.java"));
+      writer.add(secondPackage.fileCoverage("org/example/Foo.java").toRecord("org/example/Foo.java"));
+      writer.add(secondPackage.fileCoverage("org/other/Bar.java").toRecord("org/other/Bar.java"));
+      writer.finish();
+    }
+
+    assertThat(directory.list()).containsOnly("coverage.ccov");
+    ReportCoverage read = BinaryCoverageFormat.read(binaryReport, ReportFilter.ALL);
+    assertThat(read.sources()).containsOnly("/build/src/main/java");
+    assertThat(read.byFilename().keySet()).containsOnly("org/example/Foo.java", "org/other/Bar.java");
+    NewCoverage newCoverage = mock(NewCoverage.class);
+    read.byFilename().get("org/example/Foo.java").save(newCoverage);
+    verify(newCoverage).lineHits(2, 4);
+    verify(newCoverage).conditions(2, 4, 3);
+  }
+
+  @Test
+  public void varintsRoundTrip() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int[] values = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE};
+    for (int value : values) {
+      BinaryCoverageFormat.writeVarint(output, value);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(output.toByteArray());
+    for (int value : values) {
+      assertThat(BinaryCoverageFormat.readVarint(buffer)).isEqualTo(value);
+    }
+    assertThat(buffer.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void recordsTheStampOfTheReport() throws Exception {
+    File report = temp.newFile("coverage.xml");
+    FileUtils.write(report, "<coverage/>", StandardCharsets.UTF_8);
+    ReportStamp stamp = ReportStamp.of(report.toPath());
+    File binaryReport = temp.newFile();
+    try (OutputStream output = new FileOutputStream(binaryReport)) {
+      BinaryCoverageFormat.write(ParsedReport.of(new ReportCoverage()), stamp, output);
+    }
+
+    assertThat(BinaryCoverageFormat.readStamp(binaryReport)).isEqualTo(stamp);
+    assertThat(BinaryCoverageFormat.read(binaryReport, ReportFilter.ALL).byFilename()).isEmpty();
+
+    FileTime lastModified = Files.getLastModifiedTime(report.toPath());
+    FileUtils.write(report, "<coverage />", StandardCharsets.UTF_8);
+    Files.setLastModifiedTime(report.toPath(), lastModified);
+    assertThat(ReportStamp.of(report.toPath())).isNotEqualTo(stamp);
+  }
+
+  @Test
+  public void readsVersion1WithoutStamp() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    output.write(BinaryCoverageFormat.MAGIC);
+    BinaryCoverageFormat.writeVarint(output, 1);
+    BinaryCoverageFormat.writeVarint(output, 0);
+    File binaryReport = temp.newFile();
+    FileUtils.writeByteArrayToFile(binaryReport, output.toByteArray());
+
+    assertThat(BinaryCoverageFormat.readStamp(binaryReport).isKnown()).isFalse();
+    assertThat(BinaryCoverageFormat.read(ByteBuffer.wrap(output.toByteArray()), ReportFilter.ALL).byFilename()).isEmpty();
+  }
+
+  @Test
+  public void doesNotTrustStampOfVersion2WithoutSourceRoots() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    output.write(BinaryCoverageFormat.MAGIC);
+    BinaryCoverageFormat.writeVarint(output, 2);
+    new DataOutputStream(output).writeLong(11);
+    new DataOutputStream(output).writeLong(42);
+    BinaryCoverageFormat.writeVarint(output, 0);
+    File binaryReport = temp.newFile();
+    FileUtils.writeByteArrayToFile(binaryReport, output.toByteArray());
+
+    assertThat(BinaryCoverageFormat.readStamp(binaryReport).isKnown()).isFalse();
+    assertThat(BinaryCoverageFormat.read(ByteBuffer.wrap(output.toByteArray()), ReportFilter.ALL).byFilename()).isEmpty();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsOtherContent() {
+    BinaryCoverageFormat.read(ByteBuffer.wrap("<?xml version=\"1.0\"?>".getBytes()), ReportFilter.ALL);
+  }
+
+}
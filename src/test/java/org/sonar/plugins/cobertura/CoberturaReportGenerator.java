@@ -0,0 +1,201 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.plugins.java.Java;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of Cobertura reports of any size, shared by the tests and the benchmarks.
+ * <p>
+ * Every top-level class has its own file <code>org/example/p&lt;package&gt;/C&lt;class&gt;.java</code>, shared with its
+ * inner classes, each class covering its own range of lines. Lines are repeated in a <code>&lt;methods&gt;</code> block,
+ * like Cobertura does, and the report is written while it is generated, so that it can be larger than the heap.
+ */
+public final class CoberturaReportGenerator {
+
+  public static final String SOURCE_DIR = "src/main/java";
+
+  private int packages = 10;
+  private int classesPerPackage = 100;
+  private int linesPerClass = 50;
+  private int innerClasses = 0;
+  private double branchDensity = 0.2;
+  private long seed = 42;
+
+  public CoberturaReportGenerator packages(int packages) {
+    this.packages = packages;
+    return this;
+  }
+
+  public CoberturaReportGenerator classesPerPackage(int classesPerPackage) {
+    this.classesPerPackage = classesPerPackage;
+    return this;
+  }
+
+  public CoberturaReportGenerator linesPerClass(int linesPerClass) {
+    this.linesPerClass = linesPerClass;
+    return this;
+  }
+
+  /**
+   * @param innerClasses number of inner classes reported for each top-level class, in the same file
+   */
+  public CoberturaReportGenerator innerClasses(int innerClasses) {
+    this.innerClasses = innerClasses;
+    return this;
+  }
+
+  /**
+   * @param branchDensity ratio of lines which are branches, 0 for line-only reports
+   */
+  public CoberturaReportGenerator branchDensity(double branchDensity) {
+    this.branchDensity = branchDensity;
+    return this;
+  }
+
+  public CoberturaReportGenerator seed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * @return the filenames of the generated classes, relative to {@link #SOURCE_DIR}
+   */
+  public List<String> filenames() {
+    List<String> filenames = new ArrayList<>();
+    for (int p = 0; p < packages; p++) {
+      for (int c = 0; c < classesPerPackage; c++) {
+        filenames.add(packageName(p).replace('.', '/') + "/C" + c + ".java");
+      }
+    }
+    return filenames;
+  }
+
+  /**
+   * @return the main Java files of a module containing all the generated classes under {@link #SOURCE_DIR}
+   */
+  public List<InputFile> inputFiles(Path moduleBaseDir) {
+    List<InputFile> inputFiles = new ArrayList<>();
+    for (String filename : filenames()) {
+      inputFiles.add(new TestInputFileBuilder("module", SOURCE_DIR + "/" + filename)
+        .setModuleBaseDir(moduleBaseDir)
+        .setLanguage(Java.KEY)
+        .setType(InputFile.Type.MAIN)
+        .build());
+    }
+    return inputFiles;
+  }
+
+  /**
+   * @return the number of distinct lines reported for each file
+   */
+  public int linesPerFile() {
+    return (1 + innerClasses) * linesPerClass;
+  }
+
+  public void write(File report) throws IOException {
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), StandardCharsets.UTF_8), 1 << 16)) {
+      write(writer);
+    }
+  }
+
+  public void write(Writer writer) throws IOException {
+    Random random = new Random(seed);
+    writer.write("<?xml version=\"1.0\"?>\n");
+    writer.write("<!DOCTYPE coverage SYSTEM \"http://cobertura.sourceforge.net/xml/coverage-04.dtd\">\n");
+    writer.write("<coverage line-rate=\"0.5\" branch-rate=\"0.5\" version=\"2.1.1\" timestamp=\"1500000000000\">\n");
+    writer.write("  <sources>\n    <source>/project/" + SOURCE_DIR + "</source>\n  </sources>\n");
+    writer.write("  <packages>\n");
+    for (int p = 0; p < packages; p++) {
+      String packageName = packageName(p);
+      writer.write("    <package name=\"" + packageName + "\" line-rate=\"0.5\" branch-rate=\"0.5\" complexity=\"1.0\">\n");
+      writer.write("      <classes>\n");
+      for (int c = 0; c < classesPerPackage; c++) {
+        String filename = packageName.replace('.', '/') + "/C" + c + ".java";
+        writeClass(writer, random, packageName + ".C" + c, filename, 1);
+        for (int inner = 1; inner <= innerClasses; inner++) {
+          writeClass(writer, random, packageName + ".C" + c + "$Inner" + inner, filename, 1 + inner * linesPerClass);
+        }
+      }
+      writer.write("      </classes>\n");
+      writer.write("    </package>\n");
+    }
+    writer.write("  </packages>\n");
+    writer.write("</coverage>\n");
+  }
+
+  private void writeClass(Writer writer, Random random, String className, String filename, int firstLine) throws IOException {
+    String[] lines = new String[linesPerClass];
+    for (int i = 0; i < linesPerClass; i++) {
+      lines[i] = line(random, firstLine + i);
+    }
+    writer.write("        <class name=\"" + className + "\" filename=\"" + filename
+      + "\" line-rate=\"0.5\" branch-rate=\"0.5\" complexity=\"1.0\">\n");
+    writer.write("          <methods>\n");
+    writer.write("            <method name=\"run\" signature=\"()V\" line-rate=\"0.5\" branch-rate=\"0.5\">\n");
+    writer.write("              <lines>\n");
+    for (String line : lines) {
+      writer.write("                ");
+      writer.write(line);
+    }
+    writer.write("              </lines>\n");
+    writer.write("            </method>\n");
+    writer.write("          </methods>\n");
+    writer.write("          <lines>\n");
+    for (String line : lines) {
+      writer.write("            ");
+      writer.write(line);
+    }
+    writer.write("          </lines>\n");
+    writer.write("        </class>\n");
+  }
+
+  private String line(Random random, int number) {
+    int hits = random.nextInt(4) == 0 ? 0 : random.nextInt(100);
+    if (random.nextDouble() >= branchDensity) {
+      return "<line number=\"" + number + "\" hits=\"" + hits + "\" branch=\"false\"/>\n";
+    }
+    int conditions = 2 * (1 + random.nextInt(2));
+    int covered = hits == 0 ? 0 : random.nextInt(conditions + 1);
+    int percent = 100 * covered / conditions;
+    return "<line number=\"" + number + "\" hits=\"" + hits + "\" branch=\"true\" condition-coverage=\"" + percent + "% ("
+      + covered + "/" + conditions + ")\"><conditions><condition number=\"0\" type=\"jump\" coverage=\"" + percent
+      + "%\"/></conditions></line>\n";
+  }
+
+  private static String packageName(int index) {
+    return "org.example.p" + index;
+  }
+
+}
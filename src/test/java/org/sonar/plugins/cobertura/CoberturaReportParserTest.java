@@ -0,0 +1,103 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoberturaReportParserTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void parseNumbersLikeEnglishNumberFormat() throws XMLStreamException {
+    XMLStreamReader reader = lineReader();
+    assertThat(CoberturaReportParser.parseNumber("0", reader)).isEqualTo(0);
+    assertThat(CoberturaReportParser.parseNumber("1,234", reader)).isEqualTo(1234);
+    assertThat(CoberturaReportParser.parseNumber("12.0", reader)).isEqualTo(12);
+    assertThat(CoberturaReportParser.parseNumber("99999999999", reader)).isEqualTo(Integer.MAX_VALUE);
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void failOnInvalidNumber() throws XMLStreamException {
+    CoberturaReportParser.parseNumber("12a", lineReader());
+  }
+
+  /**
+   * A reader on the <code>&lt;line&gt;</code> element of a small report, so that errors have a real location.
+   */
+  private static XMLStreamReader lineReader() throws XMLStreamException {
+    XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(
+      new StringReader("<coverage><packages><package name=\"a\"><classes><class name=\"a.A\" filename=\"a/A.java\"><lines>"
+        + "<line number=\"12a\" hits=\"1\" branch=\"false\"/></lines></class></classes></package></packages></coverage>"));
+    while (!reader.isStartElement() || !"line".equals(reader.getLocalName())) {
+      reader.next();
+    }
+    return reader;
+  }
+
+  @Test
+  public void memoryMappedEngineFallsBackToStaxOnUnsupportedContent() throws IOException {
+    File report = temp.newFile("coverage.xml");
+    FileUtils.write(report, "<?xml version=\"1.0\"?>\n<coverage><packages><package name=\"a\"><classes>"
+      + "<class name=\"a.A\" filename=\"a/A&amp;B.java\"><lines><line number=\"3\" hits=\"2\" branch=\"false\"/></lines></class>"
+      + "</classes></package></packages></coverage>", StandardCharsets.UTF_8);
+
+    ReportCoverage coverage = CoberturaReportParser.parse(report, ParserEngine.MMAP, ReportFilter.ALL);
+
+    assertThat(coverage.byFilename().keySet()).containsOnly("a/A&B.java");
+  }
+
+  @Test
+  public void packagesAreSentOnceWhenFallingBackAfterSomePackages() throws IOException {
+    File report = temp.newFile("coverage.xml");
+    FileUtils.write(report, "<?xml version=\"1.0\"?>\n<coverage><packages>"
+      + "<package name=\"a\"><classes><class name=\"a.A\" filename=\"a/A.java\"><lines>"
+      + "<line number=\"1\" hits=\"1\" branch=\"false\"/></lines></class></classes></package>"
+      + "<package name=\"b\"><classes><class name=\"b.B\" filename=\"b&#47;B.java\"><lines>"
+      + "<line number=\"2\" hits=\"1\" branch=\"false\"/></lines></class></classes></package>"
+      + "<package name=\"c\"><classes><class name=\"c.C\" filename=\"c/C.java\"><lines>"
+      + "<line number=\"3\" hits=\"1\" branch=\"false\"/></lines></class></classes></package>"
+      + "</packages></coverage>", StandardCharsets.UTF_8);
+    List<String> filenames = new ArrayList<>();
+
+    ReportCoverage last = CoberturaReportParser.parse(report, ParserEngine.MMAP, ReportFilter.ALL, new ParsingStats(),
+      packageCoverage -> filenames.addAll(packageCoverage.byFilename().keySet()));
+    filenames.addAll(last.byFilename().keySet());
+
+    assertThat(filenames).containsExactly("a/A.java", "b/B.java", "c/C.java");
+  }
+
+}
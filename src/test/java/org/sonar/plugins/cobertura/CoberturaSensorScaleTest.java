@@ -0,0 +1,151 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.coverage.CoverageType;
+import org.sonar.api.batch.sensor.coverage.NewCoverage;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.scan.filesystem.PathResolver;
+import org.sonar.plugins.java.api.JavaResourceLocator;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the sensor on a report of about 1 GB, which must be streamed to fit in the heap of the <code>scale-tests</code>
+ * profile (<code>-Xmx256m</code>): <code>mvn test -Pscale-tests</code>. The tests are skipped when the heap is large enough
+ * for the report. The peak usage of the heap is checked as well, so that a report which is not streamed fails the test.
+ */
+public class CoberturaSensorScaleTest {
+
+  @ClassRule
+  public static TemporaryFolder temp = new TemporaryFolder();
+
+  private static final CoberturaReportGenerator GENERATOR = new CoberturaReportGenerator()
+    .packages(320)
+    .classesPerPackage(100)
+    .linesPerClass(50)
+    .innerClasses(3);
+
+  private static File report;
+
+  private final AtomicLong savedFiles = new AtomicLong();
+  private final AtomicLong savedLines = new AtomicLong();
+
+  @BeforeClass
+  public static void generateReport() throws Exception {
+    report = new File(temp.getRoot(), "coverage.xml");
+    GENERATOR.write(report);
+  }
+
+  @Test
+  public void staxEngineStreamsReportLargerThanHeap() {
+    execute("stax");
+  }
+
+  @Test
+  public void memoryMappedEngineStreamsReportLargerThanHeap() {
+    execute("mmap");
+  }
+
+  private void execute(String parser) {
+    assumeTrue(report.length() > 4 * Runtime.getRuntime().maxMemory());
+
+    DefaultFileSystem fs = new DefaultFileSystem(temp.getRoot().toPath());
+    for (InputFile inputFile : GENERATOR.inputFiles(temp.getRoot().toPath())) {
+      fs.add(inputFile);
+    }
+    MapSettings settings = new MapSettings();
+    settings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, report.getName());
+    settings.setProperty(CoberturaPlugin.COBERTURA_PARSER_PROPERTY, parser);
+    settings.setProperty(InputFileIndex.SOURCES_PROPERTY, CoberturaReportGenerator.SOURCE_DIR);
+    SensorContext context = mock(SensorContext.class);
+    when(context.newCoverage()).thenAnswer(invocation -> new CountingCoverage());
+
+    List<MemoryPoolMXBean> heapPools = heapPools();
+    heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+    new CoberturaSensor(fs, new PathResolver(), settings, mock(JavaResourceLocator.class), settings.asConfig()).execute(context);
+
+    // the peaks of the pools may not be simultaneous, so their sum overestimates the peak of the heap
+    long peakHeapBytes = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+    assertThat(peakHeapBytes).isLessThan(report.length() / 4);
+    int files = GENERATOR.filenames().size();
+    assertThat(savedFiles.get()).isEqualTo(files);
+    assertThat(savedLines.get()).isEqualTo((long) files * GENERATOR.linesPerFile());
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    return ManagementFactory.getMemoryPoolMXBeans().stream()
+      .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Does not keep anything, unlike mocks which record every invocation.
+   */
+  private class CountingCoverage implements NewCoverage {
+
+    @Override
+    public NewCoverage onFile(InputFile inputFile) {
+      return this;
+    }
+
+    // deprecated, and ignored by the plugin
+    @Override
+    public NewCoverage ofType(CoverageType type) {
+      return this;
+    }
+
+    @Override
+    public NewCoverage lineHits(int line, int hits) {
+      savedLines.incrementAndGet();
+      return this;
+    }
+
+    @Override
+    public NewCoverage conditions(int line, int conditions, int coveredConditions) {
+      return this;
+    }
+
+    @Override
+    public void save() {
+      savedFiles.incrementAndGet();
+    }
+  }
+
+}
@@ -19,8 +19,13 @@
  */
 package org.sonar.plugins.cobertura;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.sonar.api.batch.fs.FilePredicate;
 import org.sonar.api.batch.fs.FilePredicates;
@@ -37,8 +42,21 @@ import org.sonar.plugins.java.Java;
 import org.sonar.plugins.java.api.JavaResourceLocator;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
-
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.GZIPOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
@@ -46,6 +64,9 @@ import static org.mockito.MockitoAnnotations.initMocks;
 
 public class CoberturaSensorTest {
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   private CoberturaSensor sensor;
   private Configuration configuration;
   private MapSettings settings;
@@ -79,8 +100,10 @@ public class CoberturaSensorTest {
     when(context.fileSystem()).thenReturn(fs);
     when(fs.predicates()).thenReturn(predicates);
     when(inputFile.file()).thenReturn(file);
-    when(predicates.is(file)).thenReturn(predicate);
-    when(fs.inputFile(predicate)).thenReturn(inputFile);
+    when(predicates.hasLanguage(Java.KEY)).thenReturn(predicate);
+    when(predicates.hasType(Type.MAIN)).thenReturn(predicate);
+    when(predicates.and(predicate, predicate)).thenReturn(predicate);
+    when(fs.inputFiles(predicate)).thenReturn(Collections.singletonList(inputFile));
 
     when(context.newCoverage()).thenReturn(newCoverage);
   }
@@ -127,7 +150,8 @@ public class CoberturaSensorTest {
 
   @Test
   public void testDoNotSaveMeasureOnResourceWhichDoesntExistInTheContext() throws URISyntaxException {
-    when(fs.inputFile(predicate)).thenReturn(null);
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+    when(fs.inputFiles(predicate)).thenReturn(Collections.<InputFile>emptyList());
     sensor.parseReport(getCoverageReport(), context);
 
     verify(context, never()).newCoverage();
@@ -153,7 +177,7 @@ public class CoberturaSensorTest {
 
     sensor.parseReport(coverage, context);
 
-    verify(newCoverage, times(3)).onFile(inputFile);
+    verify(newCoverage, times(1)).onFile(inputFile);
 
     verify(newCoverage).lineHits(22,2);
     verify(newCoverage).lineHits(44,2);
@@ -210,7 +234,7 @@ public class CoberturaSensorTest {
 
     verify(newCoverage).lineHits(96,1);
 
-    verify(newCoverage, times(3)).save();
+    verify(newCoverage, times(1)).save();
 
     verifyNoMoreInteractions(newCoverage);
   }
@@ -252,40 +276,474 @@ public class CoberturaSensorTest {
     verifyNoMoreInteractions(newCoverage);
   }
 
+  @Test
+  public void memoryMappedEngineCollectsTheSameData() throws URISyntaxException {
+    MapSettings engineSettings = new MapSettings();
+    engineSettings.setProperty(CoberturaPlugin.COBERTURA_PARSER_PROPERTY, "mmap");
+    sensor = new CoberturaSensor(fs, pathResolver, engineSettings, javaResourceLocator, engineSettings.asConfig());
+    collectFileLineHitsData();
+  }
+
+  @Test
+  public void shouldDecompressGzipReports() throws Exception {
+    File report = temp.newFile("coverage.xml.gz");
+    try (InputStream input = new FileInputStream(getCoverageReport()); OutputStream output = new GZIPOutputStream(new FileOutputStream(report))) {
+      IOUtils.copy(input, output);
+    }
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.parseReport(report, context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,27);
+    verify(newCoverage).conditions(73, 2, 1);
+    verify(newCoverage, times(1)).save();
+  }
+
+  @Test
+  public void shouldReadConvertedBinaryReports() throws Exception {
+    File report = temp.newFile("coverage.ccov");
+    CoverageConverter.convert(new File[] {getCoverageReport()}, report);
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.parseReport(report, context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,27);
+    verify(newCoverage).conditions(73, 2, 1);
+    verify(newCoverage, times(1)).save();
+  }
+
+  @Test
+  public void shouldReadIndexWrittenByWatcherWhileUpToDate() throws Exception {
+    File baseDir = temp.newFolder();
+    File report = new File(baseDir, "coverage.xml");
+    FileUtils.copyFile(getCoverageReport(), report);
+    assertThat(CoverageWatcher.index(report.toPath())).isTrue();
+    File index = new File(baseDir, "coverage.xml" + CoverageWatcher.INDEX_SUFFIX);
+    assertThat(CoverageWatcher.readyIndex(report)).isEqualTo(index);
+    // only the index can be read
+    FileTime lastModified = Files.getLastModifiedTime(report.toPath());
+    Files.write(report.toPath(), new byte[(int) report.length()]);
+    Files.setLastModifiedTime(report.toPath(), lastModified);
+    when(fs.baseDir()).thenReturn(baseDir);
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "coverage.xml");
+    sensor = new CoberturaSensor(fs, new PathResolver(), reportSettings, javaResourceLocator, reportSettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.execute(context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,27);
+    verify(newCoverage, times(1)).save();
+
+    // rewritten within the timestamp granularity
+    FileUtils.write(report, "not xml", StandardCharsets.UTF_8);
+    Files.setLastModifiedTime(report.toPath(), lastModified);
+    assertThat(CoverageWatcher.readyIndex(report)).isEqualTo(report);
+  }
+
+  @Test
+  public void shouldReadReportsFromDiskCacheAcrossAnalyses() throws Exception {
+    File baseDir = temp.newFolder();
+    File report = new File(baseDir, "coverage.xml");
+    FileUtils.copyFile(getCoverageReport(), report);
+    File cacheDir = temp.newFolder();
+    File staleEntry = new File(cacheDir, "stale" + ReportDiskCache.ENTRY_SUFFIX);
+    FileUtils.write(staleEntry, "stale", StandardCharsets.UTF_8);
+    staleEntry.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(ReportDiskCache.MAX_AGE_DAYS + 1));
+    when(fs.baseDir()).thenReturn(baseDir);
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "coverage.xml");
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_DISK_CACHE_SIZE_PROPERTY, "1");
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_DISK_CACHE_PATH_PROPERTY, cacheDir.getAbsolutePath());
+    sensor = new CoberturaSensor(fs, new PathResolver(), reportSettings, javaResourceLocator, reportSettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.execute(context);
+
+    File entry = new File(cacheDir, ReportDiskCache.key(report) + ReportDiskCache.ENTRY_SUFFIX);
+    assertThat(cacheDir.listFiles()).containsOnly(entry);
+    long hourAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+    entry.setLastModified(hourAgo);
+
+    sensor.execute(context);
+
+    assertThat(cacheDir.listFiles()).containsOnly(entry);
+    assertThat(entry.lastModified()).isGreaterThan(hourAgo);
+    verify(newCoverage, times(2)).onFile(inputFile);
+    verify(newCoverage, times(2)).lineHits(162,27);
+    verify(newCoverage, times(2)).save();
+  }
+
+  @Test
+  public void shouldOnlyHashReportsForDiskCacheAgainWhenTheyChange() throws Exception {
+    File report = temp.newFile("coverage.xml");
+    FileUtils.copyFile(getCoverageReport(), report);
+    String key = ReportDiskCache.key(report);
+
+    // same size and modification time
+    FileTime lastModified = Files.getLastModifiedTime(report.toPath());
+    Files.write(report.toPath(), new byte[(int) report.length()]);
+    Files.setLastModifiedTime(report.toPath(), lastModified);
+    assertThat(ReportDiskCache.key(report)).isEqualTo(key);
+
+    Files.setLastModifiedTime(report.toPath(), FileTime.fromMillis(lastModified.toMillis() + 2000));
+    assertThat(ReportDiskCache.key(report)).isNotEqualTo(key);
+  }
+
+  @Test
+  public void shouldReadClassesOfModuleThroughReportIndex() throws Exception {
+    File baseDir = temp.newFolder();
+    File report = new File(baseDir, "coverage.xml");
+    FileUtils.copyFile(getCoverageReport(), report);
+    when(fs.baseDir()).thenReturn(baseDir);
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "coverage.xml");
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_INDEX_PROPERTY, true);
+    sensor = new CoberturaSensor(fs, new PathResolver(), reportSettings, javaResourceLocator, reportSettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.execute(context);
+
+    assertThat(ReportIndex.indexFile(report)).exists();
+    assertThat(ReportIndex.isReady(report)).isTrue();
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,27);
+    verify(newCoverage).conditions(73, 2, 1);
+    verify(newCoverage, times(1)).save();
+  }
+
+  @Test
+  public void shouldReadReportFromStandardInput() throws Exception {
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "-");
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+    try (InputStream report = new FileInputStream(getCoverageReport())) {
+      sensor = new CoberturaSensor(fs, new PathResolver(), reportSettings, javaResourceLocator, reportSettings.asConfig(), () -> report);
+
+      sensor.execute(context);
+    }
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,27);
+    verify(newCoverage).conditions(73, 2, 1);
+    verify(newCoverage, times(1)).save();
+  }
+
+  @Test
+  public void shouldExportStatistics() throws Exception {
+    File workDir = temp.newFolder();
+    when(fs.workDir()).thenReturn(workDir);
+    MapSettings statsSettings = new MapSettings();
+    statsSettings.setProperty(CoberturaPlugin.COBERTURA_EXPORT_STATS_PROPERTY, true);
+    sensor = new CoberturaSensor(fs, pathResolver, statsSettings, javaResourceLocator, statsSettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.parseReport(getCoverageReport(), context);
+
+    String json = FileUtils.readFileToString(new File(workDir, ParsingStats.JSON_FILENAME), StandardCharsets.UTF_8);
+    assertThat(json).contains("\"reports\": 1,");
+    assertThat(json).contains("\"packages\": 8,");
+    assertThat(json).contains("\"classes\": 61,");
+    assertThat(json).contains("\"lines\": 30,");
+    assertThat(json).contains("\"conditions\": 6,");
+    assertThat(json).contains("\"unresolvedClasses\": 54,");
+    assertThat(json).contains("\"org/apache/commons/chain/Catalog.java\"");
+  }
+
   @Test
   public void countsLineNumbersGloballyEvenAnonymousClasses() throws URISyntaxException {
     File coverage = new File(getClass().getResource("/org/sonar/plugins/cobertura/CoberturaSensorTest/shouldNotCountTwiceAnonymousClasses.xml").toURI());
     when(javaResourceLocator.findResourceByClassName("org.sonar.samples.MyFile")).thenReturn(inputFile);
     sensor.parseReport(coverage, context);
 
-    verify(newCoverage, times(2)).onFile(inputFile);
+    verify(newCoverage, times(1)).onFile(inputFile);
     verify(newCoverage).lineHits(22,2);
     verify(newCoverage).lineHits(25,0);
-    verify(newCoverage, times(2)).lineHits(26,0);
+    verify(newCoverage, times(1)).lineHits(26,0);
     verify(newCoverage).lineHits(27,0);
     verify(newCoverage).lineHits(28,0);
 
-    verify(newCoverage, times(2)).save();
+    verify(newCoverage, times(1)).save();
 
     verifyNoMoreInteractions(newCoverage);
 
   }
 
+  @Test
+  public void shouldMergeReportsFromPathsAndGlobPatterns() throws Exception {
+    File baseDir = temp.newFolder();
+    FileUtils.copyFile(getCoverageReport(), new File(baseDir, "shards/1/coverage.xml"));
+    FileUtils.copyFile(getCoverageReport(), new File(baseDir, "shards/2/coverage.xml"));
+    when(fs.baseDir()).thenReturn(baseDir);
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "shards/1/coverage.xml,shards/*/coverage.xml");
+    sensor = new CoberturaSensor(fs, new PathResolver(), reportSettings, javaResourceLocator, reportSettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.execute(context);
+
+    verify(context, times(1)).newCoverage();
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,54);
+    verify(newCoverage).lineHits(77,120);
+    verify(newCoverage).conditions(73, 2, 1);
+    verify(newCoverage).conditions(93, 2, 2);
+    verify(newCoverage, times(1)).save();
+  }
+
+  @Test
+  public void shouldMergeReportsOffHeap() throws Exception {
+    File baseDir = temp.newFolder();
+    FileUtils.copyFile(getCoverageReport(), new File(baseDir, "shards/1/coverage.xml"));
+    FileUtils.copyFile(getCoverageReport(), new File(baseDir, "shards/2/coverage.xml"));
+    File workDir = temp.newFolder();
+    when(fs.baseDir()).thenReturn(baseDir);
+    when(fs.workDir()).thenReturn(workDir);
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "shards/*/coverage.xml");
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_OFF_HEAP_PROPERTY, "true");
+    sensor = new CoberturaSensor(fs, new PathResolver(), reportSettings, javaResourceLocator, reportSettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.execute(context);
+
+    verify(context, times(1)).newCoverage();
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,54);
+    verify(newCoverage).lineHits(77,120);
+    verify(newCoverage).conditions(73, 2, 1);
+    verify(newCoverage).conditions(93, 2, 2);
+    verify(newCoverage, times(1)).save();
+    assertThat(workDir.list()).isEmpty();
+  }
+
+  @Test
+  public void shouldDiscoverReportsWhenNoneIsFoundAtReportPath() throws Exception {
+    File baseDir = temp.newFolder();
+    FileUtils.copyFile(getCoverageReport(), new File(baseDir, "build/reports/cobertura/coverage-unit.xml"));
+    // not walked
+    FileUtils.copyFile(getCoverageReport(), new File(baseDir, "node_modules/lib/coverage.xml"));
+    FileUtils.copyFile(getCoverageReport(), new File(baseDir, "src/test/resources/coverage.xml"));
+    FileUtils.copyFile(getCoverageReport(), new File(baseDir, "submodule/target/coverage.xml"));
+    FileUtils.touch(new File(baseDir, "submodule/pom.xml"));
+    // not Cobertura reports
+    FileUtils.write(new File(baseDir, "build/coverage-clover.xml"), "<?xml version=\"1.0\"?>\n<coverage generated=\"1\" clover=\"4.2\"/>", StandardCharsets.UTF_8);
+    FileUtils.write(new File(baseDir, "build/coverage-jacoco.xml"), "<?xml version=\"1.0\"?>\n<report name=\"x\"/>", StandardCharsets.UTF_8);
+    when(fs.baseDir()).thenReturn(baseDir);
+    MapSettings discoverySettings = new MapSettings();
+    discoverySettings.setProperty(CoberturaPlugin.COBERTURA_DISCOVERY_PROPERTY, true);
+    sensor = new CoberturaSensor(fs, new PathResolver(), discoverySettings, javaResourceLocator, discoverySettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+
+    sensor.execute(context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,27);
+    verify(newCoverage, times(1)).save();
+    assertThat(ReportDiscovery.INSTANCE.discover(baseDir)).containsExactly(new File(baseDir, "build/reports/cobertura/coverage-unit.xml"));
+  }
+
+  @Test
+  public void shouldResolveFilesRelativelyToSourceDirectories() throws Exception {
+    File baseDir = temp.newFolder();
+    when(fs.baseDir()).thenReturn(baseDir);
+    when(inputFile.path()).thenReturn(new File(baseDir, "src/main/java/org/apache/commons/chain/config/ConfigParser.java").toPath());
+    MapSettings sourceSettings = new MapSettings();
+    sourceSettings.setProperty("sonar.sources", "pom.xml,src/main/java");
+    sensor = new CoberturaSensor(fs, pathResolver, sourceSettings, javaResourceLocator, sourceSettings.asConfig());
+
+    sensor.parseReport(getCoverageReport(), context);
+
+    verify(javaResourceLocator, never()).findResourceByClassName("org.apache.commons.chain.config.ConfigParser");
+    // classes of packages without files in the source directories may still be in the module
+    verify(javaResourceLocator).findResourceByClassName("org.apache.commons.chain.Catalog");
+    verify(javaResourceLocator).findResourceByClassName("org.apache.commons.chain.config.ConfigRuleSet");
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,27);
+    verify(newCoverage, times(1)).save();
+  }
+
+  @Test
+  public void shouldResolveClassesOutsideOfTheDirectoryOfTheirPackage() throws Exception {
+    File baseDir = temp.newFolder();
+    when(fs.baseDir()).thenReturn(baseDir);
+    when(inputFile.path()).thenReturn(new File(baseDir, "src/main/java/parsers/ConfigParser.java").toPath());
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+    MapSettings sourcesSettings = new MapSettings();
+    sourcesSettings.setProperty("sonar.sources", "src/main/java");
+    sensor = new CoberturaSensor(fs, pathResolver, sourcesSettings, javaResourceLocator, sourcesSettings.asConfig());
+
+    sensor.parseReport(getCoverageReport(), context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(162,27);
+    verify(newCoverage, times(1)).save();
+  }
+
+  @Test
+  public void shouldResolveFilesThroughSourceRootsOfReports() throws Exception {
+    File baseDir = temp.newFolder();
+    when(fs.baseDir()).thenReturn(baseDir);
+    when(inputFile.path()).thenReturn(new File(baseDir, "generated/org/apache/commons/chain/config/ConfigParser.java").toPath());
+    File report = new File(baseDir, "coverage.xml");
+    String xml = FileUtils.readFileToString(getCoverageReport(), StandardCharsets.UTF_8);
+    FileUtils.write(report, xml.replace("/Users/simon/projects/commons-chain/src/java", new File(baseDir, "generated").getPath()), StandardCharsets.UTF_8);
+    for (String engine : new String[] {"stax", "mmap"}) {
+      MapSettings sourceSettings = new MapSettings();
+      sourceSettings.setProperty("sonar.sources", "src/main/java");
+      sourceSettings.setProperty(CoberturaPlugin.COBERTURA_RESOLUTION_PROPERTY, "sources");
+      sourceSettings.setProperty(CoberturaPlugin.COBERTURA_PARSER_PROPERTY, engine);
+      sensor = new CoberturaSensor(fs, pathResolver, sourceSettings, javaResourceLocator, sourceSettings.asConfig());
+
+      sensor.parseReport(report, context);
+    }
+
+    verifyZeroInteractions(javaResourceLocator);
+    verify(newCoverage, times(2)).onFile(inputFile);
+    verify(newCoverage, times(2)).lineHits(162,27);
+    verify(newCoverage, times(2)).save();
+  }
+
+  @Test
+  public void shouldResolveFilesMissedBeforeTheirSourceRootIsRead() throws Exception {
+    File baseDir = temp.newFolder();
+    when(fs.baseDir()).thenReturn(baseDir);
+    when(inputFile.path()).thenReturn(new File(baseDir, "generated/org/apache/commons/chain/config/ConfigParser.java").toPath());
+    MapSettings sourceSettings = new MapSettings();
+    sourceSettings.setProperty("sonar.sources", "src/main/java");
+    sourceSettings.setProperty(CoberturaPlugin.COBERTURA_RESOLUTION_PROPERTY, "sources");
+    InputFileIndex index = new InputFileIndex(fs, sourceSettings.asConfig(), javaResourceLocator);
+    String filename = "org/apache/commons/chain/config/ConfigParser.java";
+
+    index.sourceRoot("src/java");
+    assertThat(index.resolve(filename)).isNull();
+    assertThat(index.unresolvedFilenames()).containsExactly(filename);
+
+    index.sourceRoot("generated");
+    assertThat(index.resolve(filename)).isSameAs(inputFile);
+    assertThat(index.unresolvedFilenames()).isEmpty();
+  }
+
+  @Test
+  public void shouldOnlyImportCoverageOfChangedFilesWhenEnabled() throws Exception {
+    File baseDir = temp.newFolder();
+    when(fs.baseDir()).thenReturn(baseDir);
+    when(inputFile.path()).thenReturn(new File(baseDir, "src/main/java/org/apache/commons/chain/config/ConfigParser.java").toPath());
+    when(inputFile.status()).thenReturn(InputFile.Status.CHANGED);
+    InputFile unchanged = mock(InputFile.class);
+    when(unchanged.path()).thenReturn(new File(baseDir, "src/main/java/org/apache/commons/chain/Catalog.java").toPath());
+    when(unchanged.status()).thenReturn(InputFile.Status.SAME);
+    when(fs.inputFiles(predicate)).thenReturn(Arrays.asList(inputFile, unchanged));
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.Catalog")).thenReturn(unchanged);
+    MapSettings pullRequestSettings = new MapSettings();
+    pullRequestSettings.setProperty("sonar.sources", "src/main/java");
+    pullRequestSettings.setProperty("sonar.pullrequest.key", "42");
+    pullRequestSettings.setProperty(CoberturaPlugin.COBERTURA_CHANGED_FILES_ONLY_PROPERTY, true);
+    sensor = new CoberturaSensor(fs, pathResolver, pullRequestSettings, javaResourceLocator, pullRequestSettings.asConfig());
+
+    sensor.parseReport(getCoverageReport(), context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage, never()).onFile(unchanged);
+    verify(newCoverage, times(1)).save();
+
+    when(inputFile.status()).thenReturn(InputFile.Status.SAME);
+    sensor.parseReport(getCoverageReport(), context);
+
+    verify(context, times(1)).newCoverage();
+  }
+
+  @Test
+  public void shouldImportCoverageOfAllFilesInPullRequestsByDefault() throws Exception {
+    File baseDir = temp.newFolder();
+    when(fs.baseDir()).thenReturn(baseDir);
+    when(inputFile.status()).thenReturn(InputFile.Status.CHANGED);
+    InputFile unchanged = mock(InputFile.class);
+    when(unchanged.status()).thenReturn(InputFile.Status.SAME);
+    when(fs.inputFiles(predicate)).thenReturn(Arrays.asList(inputFile, unchanged));
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.config.ConfigParser")).thenReturn(inputFile);
+    when(javaResourceLocator.findResourceByClassName("org.apache.commons.chain.Catalog")).thenReturn(unchanged);
+    MapSettings pullRequestSettings = new MapSettings();
+    pullRequestSettings.setProperty("sonar.pullrequest.key", "42");
+    sensor = new CoberturaSensor(fs, pathResolver, pullRequestSettings, javaResourceLocator, pullRequestSettings.asConfig());
+
+    sensor.parseReport(getCoverageReport(), context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage, times(1)).onFile(unchanged);
+  }
+
   private File getCoverageReport() throws URISyntaxException {
     return new File(getClass().getResource("/org/sonar/plugins/cobertura/CoberturaSensorTest/commons-chain-coverage.xml").toURI());
   }
 
+  @Test
+  public void shouldSaveFilesOfSeveralPackagesOnceWhilePipeliningReport() throws Exception {
+    File baseDir = temp.newFolder();
+    FileUtils.write(new File(baseDir, "coverage.xml"), "<?xml version=\"1.0\"?>\n<coverage><packages>"
+      + "<package name=\"org.example\"><classes><class name=\"org.example.Foo\" filename=\"org/example/Foo.java\"><lines>"
+      + "<line number=\"3\" hits=\"2\" branch=\"false\"/></lines></class></classes></package>"
+      + "<package name=\"org.example\"><classes><class name=\"org.example.Foo$1\" filename=\"org/example/Foo.java\"><lines>"
+      + "<line number=\"3\" hits=\"1\" branch=\"false\"/><line number=\"5\" hits=\"0\" branch=\"false\"/></lines></class></classes></package>"
+      + "</packages></coverage>", StandardCharsets.UTF_8);
+    when(fs.baseDir()).thenReturn(baseDir);
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "coverage.xml");
+    sensor = new CoberturaSensor(fs, new PathResolver(), reportSettings, javaResourceLocator, reportSettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.example.Foo")).thenReturn(inputFile);
+
+    sensor.execute(context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(3, 3);
+    verify(newCoverage).lineHits(5, 0);
+    verify(newCoverage, times(1)).save();
+  }
+
+  @Test
+  public void shouldSkipClassesOfOtherModulesWhilePipeliningReport() throws Exception {
+    File baseDir = temp.newFolder();
+    // the lines of the foreign class cannot be parsed, the report can only be imported if it is skipped
+    FileUtils.write(new File(baseDir, "coverage.xml"), "<?xml version=\"1.0\"?>\n<coverage><packages><package name=\"org.example\"><classes>"
+      + "<class name=\"org.example.Foo\" filename=\"org/example/Foo.java\"><lines><line number=\"3\" hits=\"2\" branch=\"false\"/></lines></class>"
+      + "<class name=\"org.example.Bar\" filename=\"org/example/Bar.java\"><lines><line number=\"5\" hits=\"x\" branch=\"false\"/></lines></class>"
+      + "</classes></package></packages></coverage>", StandardCharsets.UTF_8);
+    when(fs.baseDir()).thenReturn(baseDir);
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "coverage.xml");
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_PARSER_PROPERTY, "stax");
+    sensor = new CoberturaSensor(fs, new PathResolver(), reportSettings, javaResourceLocator, reportSettings.asConfig());
+    when(javaResourceLocator.findResourceByClassName("org.example.Foo")).thenReturn(inputFile);
+
+    sensor.execute(context);
+
+    verify(newCoverage, times(1)).onFile(inputFile);
+    verify(newCoverage).lineHits(3, 2);
+    verify(newCoverage, times(1)).save();
+    verify(javaResourceLocator, times(1)).findResourceByClassName("org.example.Bar");
+  }
+
   @Test
   public void should_execute_only_on_java_files() throws Exception {
     SensorDescriptor descriptor = mock(SensorDescriptor.class);
     when(descriptor.onlyOnLanguage(anyString())).thenReturn(descriptor);
     when(descriptor.onlyOnFileType(any(Type.class))).thenReturn(descriptor);
+    when(descriptor.name(anyString())).thenReturn(descriptor);
     sensor.describe(descriptor );
 
     verify(descriptor).onlyOnLanguage(Java.KEY);
     verify(descriptor).onlyOnFileType(Type.MAIN);
     verify(descriptor).name("CoberturaSensor");
+    ArgumentCaptor<Predicate<Configuration>> condition = ArgumentCaptor.forClass((Class) Predicate.class);
+    verify(descriptor).onlyWhenConfiguration(condition.capture());
     verifyNoMoreInteractions(descriptor);
+    MapSettings summarySettings = new MapSettings();
+    assertThat(condition.getValue().test(summarySettings.asConfig())).isTrue();
+    summarySettings.setProperty(CoberturaPlugin.COBERTURA_SUMMARY_ONLY_PROPERTY, true);
+    assertThat(condition.getValue().test(summarySettings.asConfig())).isFalse();
   }
 
 }
@@ -0,0 +1,96 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputModule;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.internal.DefaultSensorDescriptor;
+import org.sonar.api.batch.sensor.measure.NewMeasure;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.scan.filesystem.PathResolver;
+
+import java.io.File;
+import java.io.Serializable;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CoberturaSummarySensorTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldOnlyRunOnceOnTheRootModuleInSummaryMode() {
+    DefaultSensorDescriptor descriptor = new DefaultSensorDescriptor();
+    new CoberturaSummarySensor(mock(FileSystem.class), new PathResolver(), new MapSettings().asConfig()).describe(descriptor);
+
+    assertThat(descriptor.isGlobal()).isTrue();
+    MapSettings summarySettings = new MapSettings();
+    assertThat(descriptor.configurationPredicate().test(summarySettings.asConfig())).isFalse();
+    summarySettings.setProperty(CoberturaPlugin.COBERTURA_SUMMARY_ONLY_PROPERTY, true);
+    assertThat(descriptor.configurationPredicate().test(summarySettings.asConfig())).isTrue();
+  }
+
+  @Test
+  public void shouldOnlySaveTotalsOfReports() throws Exception {
+    File baseDir = temp.newFolder();
+    FileUtils.copyFile(new File(getClass().getResource("/org/sonar/plugins/cobertura/CoberturaSensorTest/commons-chain-coverage.xml").toURI()),
+      new File(baseDir, "coverage.xml"));
+    FileSystem fs = mock(FileSystem.class);
+    when(fs.baseDir()).thenReturn(baseDir);
+    SensorContext context = mock(SensorContext.class);
+    InputModule module = mock(InputModule.class);
+    when(context.module()).thenReturn(module);
+    // fluent methods return the measure itself
+    NewMeasure measure = mock(NewMeasure.class,
+      (Answer<Object>) invocation -> invocation.getMethod().getReturnType().isInstance(invocation.getMock()) ? invocation.getMock() : null);
+    when(context.<Serializable>newMeasure()).thenReturn(measure);
+    MapSettings reportSettings = new MapSettings();
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_REPORT_PATH_PROPERTY, "coverage.xml");
+    reportSettings.setProperty(CoberturaPlugin.COBERTURA_SUMMARY_ONLY_PROPERTY, true);
+    CoberturaSummarySensor sensor = new CoberturaSummarySensor(fs, new PathResolver(), reportSettings.asConfig());
+
+    sensor.execute(context);
+
+    verify(context, never()).newCoverage();
+    verify(measure, times(4)).on(module);
+    verify(measure).forMetric(CoberturaMetrics.SUMMARY_LINE_COVERAGE);
+    verify(measure).withValue(100.0 * ((double) 1353 / 2005));
+    verify(measure).forMetric(CoberturaMetrics.SUMMARY_BRANCH_COVERAGE);
+    verify(measure).withValue(100.0 * ((double) 524 / 906));
+    verify(measure).forMetric(CoberturaMetrics.SUMMARY_LINES_TO_COVER);
+    verify(measure).withValue(2005);
+    verify(measure).forMetric(CoberturaMetrics.SUMMARY_UNCOVERED_LINES);
+    verify(measure).withValue(2005 - 1353);
+    verify(measure, times(4)).save();
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoverageRecordReaderTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void readRecordsOfEachPackage() throws IOException {
+    File report = writeReport();
+
+    for (ParserEngine engine : ParserEngine.values()) {
+      List<CoverageRecord> records = new ArrayList<>();
+      new CoverageRecordReader(engine, filename -> !filename.startsWith("c/")).read(report, records::add);
+
+      assertThat(records).hasSize(3);
+      assertThat(records.get(0).filename()).isEqualTo("a/A.java");
+      assertThat(records.get(1).filename()).isEqualTo("b/B.java");
+      assertThat(records.get(2).filename()).isEqualTo("a/A.java");
+      CoverageRecord record = records.get(0);
+      assertThat(record.lineCount()).isEqualTo(2);
+      assertThat(record.line(0)).isEqualTo(1);
+      assertThat(record.hits(0)).isEqualTo(3);
+      assertThat(record.line(1)).isEqualTo(4);
+      assertThat(record.hits(1)).isEqualTo(0);
+      assertThat(record.branchLineCount()).isEqualTo(1);
+      assertThat(record.branchLine(0)).isEqualTo(4);
+      assertThat(record.conditions(0)).isEqualTo(2);
+      assertThat(record.coveredConditions(0)).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void readBinaryReports() throws IOException {
+    File binary = temp.newFile("coverage.ccov");
+    CoverageConverter.convert(new File[] {writeReport()}, binary);
+    List<String> filenames = new ArrayList<>();
+
+    new CoverageRecordReader().read(binary, record -> filenames.add(record.filename()));
+
+    assertThat(filenames).containsOnly("a/A.java", "b/B.java", "c/C.java");
+  }
+
+  @Test
+  public void readSourceRootsOnce() throws IOException {
+    File report = writeReport();
+    File binary = temp.newFile("coverage.ccov");
+    CoverageConverter.convert(new File[] {report}, binary);
+
+    for (ParserEngine engine : ParserEngine.values()) {
+      List<String> sources = new ArrayList<>();
+      new CoverageRecordReader(engine, filename -> true).read(report, sources::add, record -> {
+      });
+      assertThat(sources).containsExactly("/src", "/gen");
+    }
+    List<String> sources = new ArrayList<>();
+    new CoverageRecordReader().read(binary, sources::add, record -> {
+    });
+    assertThat(sources).containsExactly("/src", "/gen");
+  }
+
+  private File writeReport() throws IOException {
+    File report = temp.newFile("coverage.xml");
+    FileUtils.write(report, "<?xml version=\"1.0\"?>\n<coverage><sources><source>/src</source><source>/gen</source></sources><packages>"
+      + "<package name=\"a\"><classes><class name=\"a.A\" filename=\"a/A.java\"><lines>"
+      + "<line number=\"1\" hits=\"3\" branch=\"false\"/>"
+      + "<line number=\"4\" hits=\"0\" branch=\"true\" condition-coverage=\"50% (1/2)\"/></lines></class></classes></package>"
+      + "<package name=\"b\"><classes><class name=\"b.B\" filename=\"b/B.java\"><lines>"
+      + "<line number=\"2\" hits=\"1\" branch=\"false\"/></lines></class></classes></package>"
+      + "<package name=\"c\"><classes><class name=\"c.C\" filename=\"c/C.java\"><lines>"
+      + "<line number=\"3\" hits=\"1\" branch=\"false\"/></lines></class></classes></package>"
+      + "<package name=\"a.impl\"><classes><class name=\"a.A$1\" filename=\"a/A.java\"><lines>"
+      + "<line number=\"5\" hits=\"1\" branch=\"false\"/></lines></class></classes></package>"
+      + "</packages></coverage>", StandardCharsets.UTF_8);
+    return report;
+  }
+
+}
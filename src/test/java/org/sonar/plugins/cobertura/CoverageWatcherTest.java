@@ -0,0 +1,100 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoverageWatcherTest {
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File directory;
+  private CoverageWatcher watcher;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = temp.newFolder();
+    watcher = new CoverageWatcher(Collections.singletonList(directory.toPath()));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    watcher.close();
+  }
+
+  @Test
+  public void indexesCreatedAndModifiedReportsAndDeletesTheIndexOfDeletedOnes() throws Exception {
+    File report = new File(directory, "coverage.xml");
+    File index = new File(directory, "coverage.xml" + CoverageWatcher.INDEX_SUFFIX);
+
+    FileUtils.copyFile(getCoverageReport(), report);
+    pollUntil(() -> CoverageWatcher.readyIndex(report).equals(index));
+
+    FileUtils.write(report, "<!-- rerun -->", StandardCharsets.UTF_8, true);
+    assertThat(CoverageWatcher.readyIndex(report)).isEqualTo(report);
+    pollUntil(() -> CoverageWatcher.readyIndex(report).equals(index));
+
+    assertThat(report.delete()).isTrue();
+    pollUntil(() -> !index.exists());
+  }
+
+  @Test
+  public void ignoresOtherFiles() throws Exception {
+    File other = new File(directory, "other.xml");
+    FileUtils.copyFile(getCoverageReport(), other);
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * CoverageWatcher.QUIET_MILLIS);
+    while (System.nanoTime() < deadline) {
+      watcher.poll(100);
+    }
+
+    assertThat(directory.list()).containsOnly("other.xml");
+  }
+
+  private void pollUntil(BooleanSupplier condition) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+    while (!condition.getAsBoolean()) {
+      assertThat(System.nanoTime() < deadline).isTrue();
+      watcher.poll(100);
+    }
+  }
+
+  private File getCoverageReport() throws Exception {
+    return new File(getClass().getResource("/org/sonar/plugins/cobertura/CoberturaSensorTest/commons-chain-coverage.xml").toURI());
+  }
+
+}
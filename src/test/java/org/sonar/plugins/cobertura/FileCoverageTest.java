@@ -0,0 +1,91 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.junit.Test;
+import org.sonar.api.batch.sensor.coverage.NewCoverage;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class FileCoverageTest {
+
+  private final NewCoverage newCoverage = mock(NewCoverage.class);
+
+  @Test
+  public void sumsHitsAndKeepsBestBranchCoverage() {
+    FileCoverage coverage = new FileCoverage();
+    coverage.lineHits(3, 2);
+    coverage.conditions(3, 2, 1);
+    coverage.lineHits(200, 0);
+
+    FileCoverage other = new FileCoverage();
+    other.lineHits(3, 5);
+    other.conditions(3, 2, 2);
+    other.lineHits(4, 0);
+    coverage.merge(other);
+
+    coverage.save(newCoverage);
+
+    verify(newCoverage).lineHits(3, 7);
+    verify(newCoverage).lineHits(4, 0);
+    verify(newCoverage).lineHits(200, 0);
+    verify(newCoverage).conditions(3, 2, 2);
+    verify(newCoverage).save();
+    verifyNoMoreInteractions(newCoverage);
+  }
+
+  @Test
+  public void hitsDoNotOverflow() {
+    FileCoverage coverage = new FileCoverage();
+    coverage.lineHits(1, Integer.MAX_VALUE);
+    coverage.lineHits(2, FileCoverage.MAX_HITS);
+    coverage.lineHits(2, 1);
+    coverage.lineHits(3, Integer.MAX_VALUE - 10);
+    coverage.lineHits(3, Integer.MAX_VALUE - 10);
+
+    coverage.save(newCoverage);
+
+    verify(newCoverage).lineHits(1, FileCoverage.MAX_HITS);
+    verify(newCoverage).lineHits(2, FileCoverage.MAX_HITS);
+    verify(newCoverage).lineHits(3, FileCoverage.MAX_HITS);
+  }
+
+  @Test
+  public void emptyFileIsReportedAsCovered() {
+    new FileCoverage().save(newCoverage);
+
+    verify(newCoverage).lineHits(1, 1);
+    verify(newCoverage).save();
+    verifyNoMoreInteractions(newCoverage);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidLineNumbers() {
+    new FileCoverage().lineHits(0, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsLineNumbersBeyondArrayLength() {
+    new FileCoverage().conditions(Integer.MAX_VALUE, 2, 1);
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class ImportEventsTest {
+
+  private static final String IMPORT_EVENT = "org.sonar.cobertura.Import";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void emitsImportEventWhileRecorded() throws Exception {
+    assumeTrue(FlightRecorder.isAvailable());
+    ReportCoverage coverage = new ReportCoverage();
+    coverage.fileCoverage("org/example/Foo.java").lineHits(1, 2);
+    coverage.fileCoverage("org/example/Foo.java").lineHits(2, 0);
+    coverage.fileCoverage("org/example/Foo.java").conditions(2, 4, 3);
+    ParsingStats stats = new ParsingStats();
+    stats.saved(coverage.fileCoverage("org/example/Foo.java"));
+    Path dump = temp.newFile("import.jfr").toPath();
+
+    try (Recording recording = new Recording()) {
+      recording.enable(IMPORT_EVENT);
+      recording.start();
+      Object event = ImportEvents.beginImport();
+      assertThat(event).isNotNull();
+      ImportEvents.commitImport(event, 3, stats);
+      recording.stop();
+      recording.dump(dump);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+    assertThat(events).hasSize(1);
+    RecordedEvent event = events.get(0);
+    assertThat(event.getEventType().getName()).isEqualTo(IMPORT_EVENT);
+    assertThat(event.getEventType().getCategoryNames()).containsExactly("SonarQube", "Cobertura");
+    assertThat(event.getInt("reports")).isEqualTo(3);
+    assertThat(event.getLong("lines")).isEqualTo(2L);
+    assertThat(event.getLong("conditions")).isEqualTo(4L);
+    assertThat(event.getInt("unresolvedClasses")).isEqualTo(0);
+  }
+
+  @Test
+  public void beginsNoEventWhenNotRecorded() {
+    assertThat(ImportEvents.beginImport()).isNull();
+    ImportEvents.commitImport(null, 1, new ParsingStats());
+  }
+
+  @Test
+  public void beginsNoEventWithoutFlightRecorder() throws Exception {
+    ClassLoader loader = new WithoutFlightRecorder(getClass().getClassLoader());
+    Class<?> importEvents = Class.forName(ImportEvents.class.getName(), true, loader);
+    assertThat(importEvents.getClassLoader()).isSameAs(loader);
+
+    Method beginImport = importEvents.getDeclaredMethod("beginImport");
+    beginImport.setAccessible(true);
+    Object event = beginImport.invoke(null);
+    assertThat(event).isNull();
+
+    Class<?> parsingStats = Class.forName(ParsingStats.class.getName(), true, loader);
+    Method commitImport = importEvents.getDeclaredMethod("commitImport", Object.class, int.class, parsingStats);
+    commitImport.setAccessible(true);
+    commitImport.invoke(null, event, 1, null);
+  }
+
+  /**
+   * Defines the classes of the plugin again, as on a runtime which has no jdk.jfr package.
+   */
+  private static final class WithoutFlightRecorder extends ClassLoader {
+
+    private WithoutFlightRecorder(ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (name.startsWith("jdk.jfr.")) {
+        throw new ClassNotFoundException(name);
+      }
+      if (!name.startsWith(ImportEvents.class.getPackage().getName() + ".")) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> loaded = findLoadedClass(name);
+      if (loaded == null) {
+        loaded = define(name);
+      }
+      if (resolve) {
+        resolveClass(loaded);
+      }
+      return loaded;
+    }
+
+    private Class<?> define(String name) throws ClassNotFoundException {
+      try (InputStream input = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+        if (input == null) {
+          throw new ClassNotFoundException(name);
+        }
+        byte[] bytes = IOUtils.toByteArray(input);
+        return defineClass(name, bytes, 0, bytes.length);
+      } catch (IOException e) {
+        throw new ClassNotFoundException(name, e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.sensor.coverage.NewCoverage;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ParsedReportCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final ParsedReportCache cache = new ParsedReportCache();
+  private final AtomicInteger loads = new AtomicInteger();
+  private final Function<File, ParsedReport> loader = file -> {
+    loads.incrementAndGet();
+    ReportCoverage coverage = new ReportCoverage();
+    coverage.fileCoverage("org/example/Foo.java").lineHits(2, 3);
+    coverage.fileCoverage("org/other/Bar.java").conditions(5, 4, 1);
+    return ParsedReport.of(coverage);
+  };
+
+  @Test
+  public void parsesSharedReportOnce() throws Exception {
+    File report = temp.newFile("coverage.xml");
+
+    ParsedReport first = cache.get(report, Long.MAX_VALUE, loader);
+    ParsedReport second = cache.get(report, Long.MAX_VALUE, loader);
+
+    assertThat(second).isSameAs(first);
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void reparsesModifiedReport() throws Exception {
+    File report = temp.newFile("coverage.xml");
+    cache.get(report, Long.MAX_VALUE, loader);
+
+    report.setLastModified(report.lastModified() - 10_000);
+    cache.get(report, Long.MAX_VALUE, loader);
+
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void doesNotKeepReportsLargerThanTheCache() throws Exception {
+    File report = temp.newFile("coverage.xml");
+    cache.get(report, 1, loader);
+    cache.get(report, 1, loader);
+
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void cachedReportIsFilteredPerModule() throws Exception {
+    ParsedReport report = cache.get(temp.newFile("coverage.xml"), Long.MAX_VALUE, loader);
+    ReportCoverage coverage = new ReportCoverage();
+    report.mergeInto(coverage, filename -> filename.startsWith("org/example/"));
+
+    assertThat(coverage.byFilename().keySet()).containsOnly("org/example/Foo.java");
+    NewCoverage newCoverage = mock(NewCoverage.class);
+    coverage.byFilename().get("org/example/Foo.java").save(newCoverage);
+    verify(newCoverage).lineHits(2, 3);
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * SonarQube Cobertura Plugin
+ * Copyright (C) 2018-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.cobertura;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class ReportIndexTest {
+
+  private static final String REPORT = "<?xml version=\"1.0\"?>\n<coverage><sources><source>/src</source></sources><packages>"
+    + "<package name=\"a\"><classes><class name=\"a.A\" filename=\"a/A.java\"><lines>"
+    + "<line number=\"1\" hits=\"3\" branch=\"false\"/></lines></class></classes></package>"
+    + "<package name=\"c\"><classes><class name=\"c.C\" filename=\"c/C.java\"><lines>"
+    + "<line number=\"3\" hits=\"1\" branch=\"false\"/></lines></class></classes></package>"
+    + "<package name=\"a.impl\"><classes><class name=\"a.A$1\" filename=\"a/A.java\"><lines>"
+    + "<line number=\"5\" hits=\"1\" branch=\"false\"/></lines></class></classes></package>"
+    + "</packages></coverage>";
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final ReportFilter onlyA = filename -> filename.startsWith("a/");
+
+  @Test
+  public void readOnlyAcceptedClasses() throws IOException {
+    File report = temp.newFile("coverage.xml");
+    FileUtils.write(report, REPORT, StandardCharsets.UTF_8);
+    assertThat(ReportIndex.ensure(report)).isTrue();
+    assertThat(ReportIndex.indexFile(report)).exists();
+    // the other classes are not read
+    FileTime lastModified = Files.getLastModifiedTime(report.toPath());
+    FileUtils.write(report, REPORT.replace("<line number=\"3\" hits=\"1\"", "<line number=\"x\" hits=\"x\""), StandardCharsets.UTF_8);
+    Files.setLastModifiedTime(report.toPath(), lastModified);
+
+    ReportIndex index = ReportIndex.ready(report);
+    assertThat(index).isNotNull();
+    ReportCoverage coverage = index.read(report, onlyA);
+
+    assertThat(coverage.byFilename().keySet()).containsOnly("a/A.java");
+    assertThat(coverage.fileCoverage("a/A.java").lineCount()).isEqualTo(2);
+    assertThat(coverage.sources()).containsOnly("/src");
+    assertThat(coverage.packageCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void ignoreIndexOfChangedReport() throws IOException {
+    File report = temp.newFile("coverage.xml");
+    FileUtils.write(report, REPORT, StandardCharsets.UTF_8);
+    ReportIndex.build(report);
+    assertThat(ReportIndex.isReady(report)).isTrue();
+
+    FileUtils.write(report, REPORT + "\n", StandardCharsets.UTF_8);
+
+    assertThat(ReportIndex.isReady(report)).isFalse();
+    assertThat(ReportIndex.ready(report)).isNull();
+  }
+
+  @Test
+  public void ignoreIndexOfReportRewrittenWithinSameMillisecond() throws IOException {
+    File report = temp.newFile("coverage.xml");
+    FileUtils.write(report, REPORT, StandardCharsets.UTF_8);
+    ReportIndex.build(report);
+    FileTime lastModified = Files.getLastModifiedTime(report.toPath());
+
+    FileUtils.write(report, REPORT.replace("hits=\"3\"", "hits=\"4\""), StandardCharsets.UTF_8);
+    FileTime rewritten = FileTime.from(lastModified.to(TimeUnit.MICROSECONDS) + 1, TimeUnit.MICROSECONDS);
+    Files.setLastModifiedTime(report.toPath(), rewritten);
+    // the file system of the build may only keep milliseconds
+    assumeTrue(!Files.getLastModifiedTime(report.toPath()).equals(lastModified));
+
+    assertThat(report.lastModified()).isEqualTo(lastModified.toMillis());
+    assertThat(ReportIndex.isReady(report)).isFalse();
+  }
+
+  @Test
+  public void doNotIndexCompressedReports() throws IOException {
+    File report = temp.newFile("coverage.xml.gz");
+    FileUtils.writeByteArrayToFile(report, new byte[] {0x1f, (byte) 0x8b, 0, 0});
+
+    assertThat(ReportIndex.ensure(report)).isFalse();
+    assertThat(ReportIndex.indexFile(report)).doesNotExist();
+  }
+
+}
@@ -13,7 +13,10 @@ installTravisTools
 case "$TEST" in
 
 ci)
-  mvn verify -B -e -V
+  mvn install -B -e -V
+  # standalone modules, built against the plugin installed above
+  mvn verify -B -e -f merger/pom.xml
+  mvn package -B -e -f benchmarks/pom.xml
   ;;
 
 plugin)